@@ -12,6 +12,7 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -46,6 +47,12 @@ public final class CheckStyleConfiguration {
     // lock used for sequentially accessing the storage
     private final ReentrantLock storageLock = new ReentrantLock();
 
+    /**
+     * The locations parsed from the storage. Replaced whenever the stored locations change,
+     * so readers need not take the lock.
+     */
+    private volatile LocationSnapshot snapshot;
+
 
     /**
      * Scan files before vcs checkin.
@@ -68,6 +75,13 @@ public final class CheckStyleConfiguration {
                 CheckStyleConstants.RESOURCE_BUNDLE);
         defaultLocation = ConfigurationLocationFactory.create(project, ConfigurationType.CLASSPATH,
                 DEFAULT_CONFIG, resources.getString("file.default.description"));
+
+        storageLock.lock();
+        try {
+            updateSnapshot();
+        } finally {
+            storageLock.unlock();
+        }
     }
 
     public ConfigurationLocation getDefaultLocation() {
@@ -75,141 +89,175 @@ public final class CheckStyleConfiguration {
     }
 
     public void setActiveConfiguration(final ConfigurationLocation configurationLocation) {
-        final List<ConfigurationLocation> configurationLocations = getConfigurationLocations();
-
-        if (configurationLocation != null && !configurationLocations.contains(configurationLocation)) {
-            throw new IllegalArgumentException("Location is not valid: " + configurationLocation);
-        }
-
         storageLock.lock();
         try {
+            if (configurationLocation != null
+                    && !snapshot.configurationLocations.contains(configurationLocation)) {
+                throw new IllegalArgumentException("Location is not valid: " + configurationLocation);
+            }
+
             if (configurationLocation != null) {
                 storage.put(ACTIVE_CONFIG, configurationLocation.getDescriptor());
             } else {
                 storage.remove(ACTIVE_CONFIG);
             }
+
+            updateSnapshot();
         } finally {
             storageLock.unlock();
         }
     }
 
     public ConfigurationLocation getActiveConfiguration() {
-        storageLock.lock();
-        try {
-            final List<ConfigurationLocation> configurationLocations = getConfigurationLocations();
-
-            if (!storage.containsKey(ACTIVE_CONFIG)) {
-                return defaultLocation;
-            }
-
-            ConfigurationLocation activeLocation = null;
-            try {
-                activeLocation = ConfigurationLocationFactory.create(project, storage.get(ACTIVE_CONFIG));
-            } catch (IllegalArgumentException e) {
-                LOG.warn("Could not load active configuration", e);
-            }
+        return snapshot.activeLocation;
+    }
 
-            if (activeLocation == null || !configurationLocations.contains(activeLocation)) {
-                LOG.info("Active configuration is invalid, returning default");
-                return defaultLocation;
-            }
+    /**
+     * Get the configured locations. The list may not be modified, and the locations are those
+     * used by running scans: copy them with {@link ConfigurationLocation#copy()} before editing.
+     *
+     * @return the configured locations, including the default location.
+     */
+    public List<ConfigurationLocation> getConfigurationLocations() {
+        return snapshot.configurationLocations;
+    }
 
-            // immediately re-set the activeConfiguration
-            // see #getConfigurationLocations() for an explanation why we must do this
-            setActiveConfiguration(activeLocation);
+    /**
+     * Get the version of the configured locations, which changes whenever the locations
+     * or the active location are set or loaded.
+     *
+     * @return the version.
+     */
+    public long getLocationsVersion() {
+        return snapshot.version;
+    }
 
-            return activeLocation;
+    public void setConfigurationLocations(final List<ConfigurationLocation> configurationLocations) {
+        storageLock.lock();
+        try {
+            storeConfigurationLocations(configurationLocations);
+            updateSnapshot();
         } finally {
             storageLock.unlock();
         }
     }
 
-    public List<ConfigurationLocation> getConfigurationLocations() {
-        storageLock.lock();
-        try {
-            final List<ConfigurationLocation> locations = new ArrayList<ConfigurationLocation>();
-
-            for (Map.Entry<String, String> entry : storage.entrySet()) {
-                if (!entry.getKey().startsWith(LOCATION_PREFIX)) {
-                    continue;
-                }
-
-                final String value = entry.getValue();
-                try {
-                    final ConfigurationLocation location = ConfigurationLocationFactory.create(
-                        project, value);
-
-                    final Map<String, String> properties = new HashMap<String, String>();
-
-                    final int index = Integer.parseInt(entry.getKey().substring(LOCATION_PREFIX.length()));
-                    final String propertyPrefix = PROPERTIES_PREFIX + index + ".";
-
-                    // loop again over all settings to find the properties belonging to this configuration
-                    // not the best solution, but since there are only few items it doesn't hurt too much...
-                    for (Map.Entry<String, String> innerEntry : storage.entrySet()) {
-                        if (innerEntry.getKey().startsWith(propertyPrefix)) {
+    private void storeConfigurationLocations(final List<ConfigurationLocation> configurationLocations) {
+        for (Iterator i = storage.keySet().iterator(); i.hasNext();) {
+            final String propertyName = i.next().toString();
+            if (propertyName.startsWith(LOCATION_PREFIX) || propertyName.startsWith(PROPERTIES_PREFIX)) {
+                i.remove();
+            }
+        }
 
-                            final String propertyName = innerEntry.getKey().substring(propertyPrefix.length());
-                            properties.put(propertyName, innerEntry.getValue());
-                        }
-                    }
+        if (configurationLocations == null) {
+            return;
+        }
 
-                    location.setProperties(properties);
-                    locations.add(location);
+        int index = 0;
+        for (ConfigurationLocation configurationLocation : configurationLocations) {
+            storage.put(LOCATION_PREFIX + index, configurationLocation.getDescriptor());
 
-                } catch (IllegalArgumentException e) {
-                    LOG.error("Could not parse location: " + value, e);
+            final Map<String, String> properties = configurationLocation.getProperties();
+            if (properties != null) {
+                for (Map.Entry<String,String> entry : properties.entrySet()) {
+                    storage.put(PROPERTIES_PREFIX + index + "." + entry.getKey(), entry.getValue());
                 }
             }
 
-            if (!locations.contains(defaultLocation)) {
-                locations.add(0, defaultLocation);
-            }
+            ++index;
+        }
+    }
 
-            // now immediately re-set the configurationLocations:
-            // since tokenised file paths are automatically resolved by the IDEA core during
-            // settings loading, we must store them again - otherwise we would loose the token and
-            // save the full file path instead (at least if the user did not change our settings, but
-            // only some other settings editors, because our setConfigurationLocations is not called
-            // from outside then)
-            setConfigurationLocations(locations);
+    /**
+     * Parse the stored locations and publish them as a new snapshot. Must be called with the
+     * storage lock held.
+     */
+    private void updateSnapshot() {
+        final List<ConfigurationLocation> locations = parseConfigurationLocations();
+
+        // now immediately re-set the configurationLocations:
+        // since tokenised file paths are automatically resolved by the IDEA core during
+        // settings loading, we must store them again - otherwise we would loose the token and
+        // save the full file path instead (at least if the user did not change our settings, but
+        // only some other settings editors, because our setConfigurationLocations is not called
+        // from outside then)
+        storeConfigurationLocations(locations);
+
+        final ConfigurationLocation activeLocation = parseActiveConfiguration(locations);
+        if (activeLocation != defaultLocation) {
+            // see above for an explanation why we must do this
+            storage.put(ACTIVE_CONFIG, activeLocation.getDescriptor());
+        }
 
-            return locations;
-        } finally {
-            storageLock.unlock();
+        long version = 0;
+        if (snapshot != null) {
+            version = snapshot.version + 1;
         }
+        snapshot = new LocationSnapshot(version, locations, activeLocation);
     }
 
-    public void setConfigurationLocations(final List<ConfigurationLocation> configurationLocations) {
-        storageLock.lock();
+    private ConfigurationLocation parseActiveConfiguration(final List<ConfigurationLocation> configurationLocations) {
+        if (!storage.containsKey(ACTIVE_CONFIG)) {
+            return defaultLocation;
+        }
+
+        ConfigurationLocation activeLocation = null;
         try {
-            for (Iterator i = storage.keySet().iterator(); i.hasNext();) {
-                final String propertyName = i.next().toString();
-                if (propertyName.startsWith(LOCATION_PREFIX) || propertyName.startsWith(PROPERTIES_PREFIX)) {
-                    i.remove();
-                }
-            }
+            activeLocation = ConfigurationLocationFactory.create(project, storage.get(ACTIVE_CONFIG));
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Could not load active configuration", e);
+        }
 
-            if (configurationLocations == null) {
-                return;
+        if (activeLocation == null || !configurationLocations.contains(activeLocation)) {
+            LOG.info("Active configuration is invalid, returning default");
+            return defaultLocation;
+        }
+
+        return activeLocation;
+    }
+
+    private List<ConfigurationLocation> parseConfigurationLocations() {
+        final List<ConfigurationLocation> locations = new ArrayList<ConfigurationLocation>();
+
+        for (Map.Entry<String, String> entry : storage.entrySet()) {
+            if (!entry.getKey().startsWith(LOCATION_PREFIX)) {
+                continue;
             }
 
-            int index = 0;
-            for (ConfigurationLocation configurationLocation : configurationLocations) {
-                storage.put(LOCATION_PREFIX + index, configurationLocation.getDescriptor());
+            final String value = entry.getValue();
+            try {
+                final ConfigurationLocation location = ConfigurationLocationFactory.create(
+                    project, value);
 
-                final Map<String, String> properties = configurationLocation.getProperties();
-                if (properties != null) {
-                    for (Map.Entry<String,String> entry : properties.entrySet()) {
-                        storage.put(PROPERTIES_PREFIX + index + "." + entry.getKey(), entry.getValue());
+                final Map<String, String> properties = new HashMap<String, String>();
+
+                final int index = Integer.parseInt(entry.getKey().substring(LOCATION_PREFIX.length()));
+                final String propertyPrefix = PROPERTIES_PREFIX + index + ".";
+
+                // loop again over all settings to find the properties belonging to this configuration
+                // not the best solution, but since there are only few items it doesn't hurt too much...
+                for (Map.Entry<String, String> innerEntry : storage.entrySet()) {
+                    if (innerEntry.getKey().startsWith(propertyPrefix)) {
+
+                        final String propertyName = innerEntry.getKey().substring(propertyPrefix.length());
+                        properties.put(propertyName, innerEntry.getValue());
                     }
                 }
 
-                ++index;
+                location.setProperties(properties);
+                locations.add(location);
+
+            } catch (IllegalArgumentException e) {
+                LOG.error("Could not parse location: " + value, e);
             }
-        } finally {
-            storageLock.unlock();
         }
+
+        if (!locations.contains(defaultLocation)) {
+            locations.add(0, defaultLocation);
+        }
+
+        return locations;
     }
 
     @NotNull
@@ -357,8 +405,26 @@ public final class CheckStyleConfiguration {
             if (stateBean != null) {
                 storage.putAll(stateBean);
             }
+            updateSnapshot();
         } finally {
             storageLock.unlock();
         }
     }
+
+    /**
+     * An immutable view of the configured locations at a point in time.
+     */
+    private static final class LocationSnapshot {
+        private final long version;
+        private final List<ConfigurationLocation> configurationLocations;
+        private final ConfigurationLocation activeLocation;
+
+        private LocationSnapshot(final long version,
+                                 final List<ConfigurationLocation> configurationLocations,
+                                 final ConfigurationLocation activeLocation) {
+            this.version = version;
+            this.configurationLocations = Collections.unmodifiableList(configurationLocations);
+            this.activeLocation = activeLocation;
+        }
+    }
 }
@@ -3,22 +3,22 @@ package org.infernus.idea.checkstyle;
 import com.intellij.codeInspection.InspectionManager;
 import com.intellij.codeInspection.LocalInspectionTool;
 import com.intellij.codeInspection.ProblemDescriptor;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.module.ModuleUtil;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.ModuleRootManager;
+import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiDocumentManager;
 import com.intellij.psi.PsiFile;
-import com.intellij.psi.codeStyle.CodeStyleSettings;
-import com.intellij.psi.codeStyle.CodeStyleSettingsManager;
-import com.puppycrawl.tools.checkstyle.Checker;
-import com.puppycrawl.tools.checkstyle.api.Configuration;
 import org.apache.log4j.Logger;
+import org.infernus.idea.checkstyle.checker.CachedChecker;
 import org.infernus.idea.checkstyle.checker.CheckStyleAuditListener;
 import org.infernus.idea.checkstyle.checker.CheckerFactory;
+import org.infernus.idea.checkstyle.checker.InMemoryChecker;
 import org.infernus.idea.checkstyle.checks.Check;
 import org.infernus.idea.checkstyle.checks.CheckFactory;
 import org.infernus.idea.checkstyle.exception.CheckStylePluginException;
@@ -32,14 +32,11 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.JComponent;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 /**
  * Inspection for CheckStyle integration for IntelliJ IDEA.
@@ -62,23 +59,21 @@ public class CheckStyleInspection extends LocalInspectionTool {
             = new CheckStyleInspectionPanel();
 
     /**
-     * Produce a CheckStyle checker.
+     * Borrow a CheckStyle checker. This must be returned to the factory once finished with.
      *
-     * @param checkStylePlugin the plugin.
-     * @param module           the current module. May be null.
+     * @param configurationLocation the configuration to use.
+     * @param module                the current module. May be null.
+     * @param moduleClassLoader     the class loader for the module. May be null.
      * @return a checker.
      */
-    private Checker getChecker(final CheckStylePlugin checkStylePlugin,
-                               final Module module) {
+    private CachedChecker borrowChecker(final ConfigurationLocation configurationLocation,
+                                        final Module module,
+                                        final ClassLoader moduleClassLoader) {
         LOG.debug("Getting CheckStyle checker for inspection.");
 
         try {
-            final ConfigurationLocation configurationLocation = getConfigurationLocation(module, checkStylePlugin);
-
-            final ClassLoader moduleClassLoader = checkStylePlugin.buildModuleClassLoader(module);
-
             LOG.info("Loading configuration from " + configurationLocation);
-            return CheckerFactory.getInstance().getChecker(configurationLocation, module, moduleClassLoader);
+            return CheckerFactory.getInstance().borrowChecker(configurationLocation, module, moduleClassLoader);
 
         } catch (Exception e) {
             LOG.error("Checker could not be created.", e);
@@ -109,29 +104,6 @@ public class CheckStyleInspection extends LocalInspectionTool {
         return configurationLocation;
     }
 
-    /**
-     * Retrieve a CheckStyle configuration.
-     *
-     * @param checkStylePlugin the plugin.
-     * @param module           the current module. May be null.
-     * @return a checkstyle configuration.
-     */
-    private Configuration getConfig(final CheckStylePlugin checkStylePlugin,
-                                    final Module module) {
-        LOG.debug("Getting CheckStyle checker for inspection.");
-
-        try {
-            final ConfigurationLocation configurationLocation = getConfigurationLocation(module, checkStylePlugin);
-
-            LOG.info("Loading configuration from " + configurationLocation);
-            return CheckerFactory.getInstance().getConfig(configurationLocation);
-
-        } catch (Exception e) {
-            LOG.error("Checker could not be created.", e);
-            throw new CheckStylePluginException("Couldn't create Checker", e);
-        }
-    }
-
     /**
      * {@inheritDoc}
      */
@@ -177,7 +149,6 @@ public class CheckStyleInspection extends LocalInspectionTool {
      * {@inheritDoc}
      */
     @Nullable
-    @SuppressWarnings({"SynchronizationOnLocalVariableOrMethodParameter"})
     public ProblemDescriptor[] checkFile(@NotNull final PsiFile psiFile,
                                          @NotNull final InspectionManager manager,
                                          final boolean isOnTheFly) {
@@ -206,35 +177,72 @@ public class CheckStyleInspection extends LocalInspectionTool {
             }
         }
 
-        File tempFile = null;
+        if (isOnTheFly) {
+            return checkStylePlugin.getInspectionScheduler().getProblems(psiFile,
+                    new Callable<ProblemDescriptor[]>() {
+                        public ProblemDescriptor[] call() {
+                            return scanFile(psiFile, manager, module, checkStylePlugin);
+                        }
+                    });
+        }
+
+        return scanFile(psiFile, manager, module, checkStylePlugin);
+    }
+
+    /**
+     * Scan a file with CheckStyle.
+     *
+     * @param psiFile          the file to scan.
+     * @param manager          the current inspection manager.
+     * @param module           the module of the file. May be null.
+     * @param checkStylePlugin the plugin.
+     * @return the problems found, or null if the file could not be scanned.
+     */
+    @Nullable
+    private ProblemDescriptor[] scanFile(final PsiFile psiFile,
+                                         final InspectionManager manager,
+                                         final Module module,
+                                         final CheckStylePlugin checkStylePlugin) {
+        final CheckerFactory checkerFactory = CheckerFactory.getInstance();
+        ConfigurationLocation configurationLocation = null;
+        ClassLoader moduleClassLoader = null;
+        CachedChecker cachedChecker = null;
         try {
-            final Checker checker = getChecker(checkStylePlugin, module);
-            if (checker == null) {
+            // scheduled scans run outside of the inspection's read action
+            configurationLocation = ApplicationManager.getApplication().runReadAction(
+                    new Computable<ConfigurationLocation>() {
+                        public ConfigurationLocation compute() {
+                            return getConfigurationLocation(module, checkStylePlugin);
+                        }
+                    });
+            moduleClassLoader = checkStylePlugin.acquireModuleClassLoader(module);
+            cachedChecker = borrowChecker(configurationLocation, module, moduleClassLoader);
+            if (cachedChecker == null) {
                 return new ProblemDescriptor[0];
             }
 
-            final Configuration config = getConfig(checkStylePlugin, module);
-            final List<Check> checks = CheckFactory.getChecks(config);
+            final List<Check> checks = CheckFactory.getChecks(cachedChecker.getConfig());
 
-            // we need to copy to a file as IntelliJ may not have saved the
+            // we check the text in memory as IntelliJ may not have saved the
             // file recently (or the file may even be being edited at this moment)
-            final Document fileDocument = PsiDocumentManager.getInstance(
-                    manager.getProject()).getDocument(psiFile);
-            if (fileDocument == null) {
+            final String fileText = readText(psiFile, manager);
+            if (fileText == null) {
                 LOG.debug("Skipping check - file is binary or has no document: "
                         + psiFile.getName());
                 return null;
             }
 
-            tempFile = writeToTemporaryFile(psiFile);
+            final File fileForScan = CheckStyleUtilities.getFileForScan(psiFile);
 
-            final Map<String, PsiFile> filesToScan = Collections.singletonMap(tempFile.getAbsolutePath(), psiFile);
+            final Map<String, PsiFile> filesToScan = Collections.singletonMap(fileForScan.getAbsolutePath(), psiFile);
 
-            final CheckStyleAuditListener listener;
-            synchronized (checker) {
-                listener = new CheckStyleAuditListener(filesToScan, manager, false, checks);
-                checker.addListener(listener);
-                checker.process(Arrays.asList(tempFile));
+            final InMemoryChecker checker = cachedChecker.getChecker();
+            final CheckStyleAuditListener listener = new CheckStyleAuditListener(filesToScan, manager, false, checks);
+            checker.addListener(listener);
+            try {
+                checker.processText(Collections.singletonMap(fileForScan, fileText));
+            } finally {
+                checker.removeListener(listener);
             }
 
             final List<ProblemDescriptor> problems = listener.getProblems(psiFile);
@@ -252,30 +260,35 @@ public class CheckStyleInspection extends LocalInspectionTool {
             return null;
 
         } finally {
-            if (tempFile != null && tempFile.exists()) {
-                tempFile.delete();
+            if (cachedChecker != null) {
+                checkerFactory.returnChecker(configurationLocation, moduleClassLoader, cachedChecker);
             }
+            checkStylePlugin.releaseModuleClassLoader(moduleClassLoader);
         }
     }
 
-    private File writeToTemporaryFile(final PsiFile psiFile)
-            throws IOException {
-        final CodeStyleSettings codeStyleSettings
-                = CodeStyleSettingsManager.getSettings(psiFile.getProject());
-
-        final File tempFile = File.createTempFile(CheckStyleConstants.TEMPFILE_NAME,
-                CheckStyleConstants.TEMPFILE_EXTENSION);
-        final BufferedWriter tempFileOut = new BufferedWriter(
-                new FileWriter(tempFile));
-        for (final char character : psiFile.getText().toCharArray()) {
-            if (character == '\n') { // IDEA uses \n internally
-                tempFileOut.write(codeStyleSettings.getLineSeparator());
-            } else {
-                tempFileOut.write(character);
+    /**
+     * Read the text of a file, which may be called from outside a read action.
+     *
+     * @param psiFile the file.
+     * @param manager the current inspection manager.
+     * @return the text of the file, or null if the file is binary or has no document.
+     */
+    @Nullable
+    private String readText(final PsiFile psiFile, final InspectionManager manager) {
+        return ApplicationManager.getApplication().runReadAction(new Computable<String>() {
+            public String compute() {
+                if (!psiFile.isValid()) {
+                    return null;
+                }
+
+                final Document fileDocument = PsiDocumentManager.getInstance(
+                        manager.getProject()).getDocument(psiFile);
+                if (fileDocument == null) {
+                    return null;
+                }
+                return psiFile.getText();
             }
-        }
-        tempFileOut.flush();
-        tempFileOut.close();
-        return tempFile;
+        });
     }
 }
@@ -26,6 +26,8 @@ public final class CheckStyleModuleConfiguration extends Properties {
 
     private final Module module;
 
+    private transient volatile ResolvedActiveLocation resolvedActiveLocation;
+
     /**
      * Create a new configuration bean.
      *
@@ -58,44 +60,80 @@ public final class CheckStyleModuleConfiguration extends Properties {
     }
 
     public ConfigurationLocation getActiveConfiguration() {
-        final List<ConfigurationLocation> configurationLocations = getConfigurationLocations();
-
-        if (!containsKey(ACTIVE_CONFIG)) {
+        final String activeDescriptor = getProperty(ACTIVE_CONFIG);
+        if (activeDescriptor == null) {
             return getProjectConfiguration();
         }
 
+        final CheckStyleConfiguration projectConfiguration = getPlugin().getConfiguration();
+        final long locationsVersion = projectConfiguration.getLocationsVersion();
+
+        ResolvedActiveLocation resolved = resolvedActiveLocation;
+        if (resolved == null || !resolved.isFor(activeDescriptor, locationsVersion)) {
+            resolved = new ResolvedActiveLocation(activeDescriptor, locationsVersion,
+                    parseActiveConfiguration(activeDescriptor, projectConfiguration.getConfigurationLocations()));
+            resolvedActiveLocation = resolved;
+        }
+
+        if (resolved.location == null) {
+            return projectConfiguration.getActiveConfiguration();
+        }
+        return resolved.location;
+    }
+
+    private ConfigurationLocation parseActiveConfiguration(final String activeDescriptor,
+                                                           final List<ConfigurationLocation> configurationLocations) {
         ConfigurationLocation activeLocation = null;
         try {
-            activeLocation = ConfigurationLocationFactory.create(module.getProject(), getProperty(ACTIVE_CONFIG));
+            activeLocation = ConfigurationLocationFactory.create(module.getProject(), activeDescriptor);
         } catch (IllegalArgumentException e) {
             LOG.warn("Could not load active configuration", e);
         }
 
         if (activeLocation == null || !configurationLocations.contains(activeLocation)) {
             LOG.info("Active module configuration is invalid, returning project configuration");
-            return getProjectConfiguration();
+            return null;
         }
 
         return activeLocation;
     }
 
     private ConfigurationLocation getProjectConfiguration() {
-        final CheckStylePlugin checkStylePlugin
-                = module.getProject().getComponent(CheckStylePlugin.class);
-        if (checkStylePlugin == null) {
-            throw new IllegalStateException("Couldn't get checkstyle plugin");
-        }
-
-        return checkStylePlugin.getConfiguration().getActiveConfiguration();
+        return getPlugin().getConfiguration().getActiveConfiguration();
     }
 
     public List<ConfigurationLocation> getConfigurationLocations() {
+        return getPlugin().getConfiguration().getConfigurationLocations();
+    }
+
+    private CheckStylePlugin getPlugin() {
         final CheckStylePlugin checkStylePlugin
                 = module.getProject().getComponent(CheckStylePlugin.class);
         if (checkStylePlugin == null) {
             throw new IllegalStateException("Couldn't get checkstyle plugin");
         }
+        return checkStylePlugin;
+    }
+
+    /**
+     * The location parsed from the active descriptor, valid for as long as neither the
+     * descriptor nor the project's locations change.
+     */
+    private static final class ResolvedActiveLocation {
+        private final String descriptor;
+        private final long locationsVersion;
+        private final ConfigurationLocation location;
+
+        private ResolvedActiveLocation(final String descriptor,
+                                       final long locationsVersion,
+                                       final ConfigurationLocation location) {
+            this.descriptor = descriptor;
+            this.locationsVersion = locationsVersion;
+            this.location = location;
+        }
 
-        return checkStylePlugin.getConfiguration().getConfigurationLocations();
+        private boolean isFor(final String activeDescriptor, final long currentLocationsVersion) {
+            return locationsVersion == currentLocationsVersion && descriptor.equals(activeDescriptor);
+        }
     }
-}
\ No newline at end of file
+}
@@ -193,6 +193,12 @@ public class CheckStyleModulePlugin implements ModuleComponent, Configurable,
         configuration.setActiveConfiguration(configPanel.getActiveLocation());
 
         reset(); // reset modification state
+
+        final CheckStylePlugin checkStylePlugin = module.getProject().getComponent(CheckStylePlugin.class);
+        if (checkStylePlugin != null) {
+            checkStylePlugin.getInspectionScheduler().invalidate();
+            checkStylePlugin.prewarmCheckers();
+        }
     }
 
     /**
@@ -1,16 +1,23 @@
 package org.infernus.idea.checkstyle;
 
 import com.intellij.codeInspection.ProblemDescriptor;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.compiler.CompilationStatusListener;
+import com.intellij.openapi.compiler.CompileContext;
+import com.intellij.openapi.compiler.CompilerManager;
 import com.intellij.openapi.components.PersistentStateComponent;
 import com.intellij.openapi.components.ProjectComponent;
 import com.intellij.openapi.components.State;
 import com.intellij.openapi.components.Storage;
 import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleManager;
 import com.intellij.openapi.options.Configurable;
 import com.intellij.openapi.options.ConfigurationException;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.ModuleRootManager;
 import com.intellij.openapi.roots.OrderRootType;
+import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.vcs.CheckinProjectPanel;
 import com.intellij.openapi.vcs.ProjectLevelVcsManager;
 import com.intellij.openapi.vcs.checkin.CheckinHandler;
@@ -25,14 +32,20 @@ import com.intellij.ui.content.Content;
 import com.puppycrawl.tools.checkstyle.api.CheckstyleException;
 import org.apache.log4j.Logger;
 import org.infernus.idea.checkstyle.checker.AbstractCheckerThread;
+import org.infernus.idea.checkstyle.checker.AuditResultCache;
+import org.infernus.idea.checkstyle.checker.AuditResultStore;
 import org.infernus.idea.checkstyle.checker.CheckFilesThread;
 import org.infernus.idea.checkstyle.checker.CheckerFactory;
+import org.infernus.idea.checkstyle.checker.InspectionScheduler;
+import org.infernus.idea.checkstyle.checker.ModuleClassLoaderCache;
 import org.infernus.idea.checkstyle.checker.ScanFilesThread;
 import org.infernus.idea.checkstyle.exception.CheckStylePluginException;
 import org.infernus.idea.checkstyle.handlers.ScanFilesBeforeCheckinHandler;
+import org.infernus.idea.checkstyle.model.ConfigurationLocation;
 import org.infernus.idea.checkstyle.toolwindow.ToolWindowPanel;
 import org.infernus.idea.checkstyle.ui.CheckStyleConfigPanel;
 import org.infernus.idea.checkstyle.util.IDEAUtilities;
+import org.infernus.idea.checkstyle.util.IndexedClassLoader;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -42,13 +55,14 @@ import javax.swing.JComponent;
 import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Main class for the CheckStyle static scanning plug-n.
@@ -73,12 +87,29 @@ public final class CheckStylePlugin extends CheckinHandlerFactory implements Pro
     @NonNls
     private static final Logger LOG = Logger.getLogger(CheckStylePlugin.class);
 
+    /**
+     * The directory, under the IDEA system directory, that scan results are persisted in.
+     */
+    @NonNls
+    private static final String RESULT_STORE_DIRECTORY = "checkstyle-idea";
+
+    /**
+     * The directory, within the result store directory, to store jar indices in.
+     */
+    @NonNls
+    private static final String JAR_INDEX_DIRECTORY = "jar-index";
+
     /**
      * Any threads in progress.
      */
     private final Set<AbstractCheckerThread> checksInProgress
             = new HashSet<AbstractCheckerThread>();
 
+    /**
+     * The generation of the most recent scan displayed in the tool window.
+     */
+    private final AtomicInteger scanGeneration = new AtomicInteger();
+
     /**
      * The configuration panel for the plug-in.
      */
@@ -99,6 +130,31 @@ public final class CheckStylePlugin extends CheckinHandlerFactory implements Pro
      */
     private ClassLoader thirdPartyClassloader;
 
+    /**
+     * Fingerprint of the third party libraries.
+     */
+    private String thirdPartyClasspathFingerprint;
+
+    /**
+     * Class loaders for module classpaths, shared between scans.
+     */
+    private final ModuleClassLoaderCache moduleClassLoaders = new ModuleClassLoaderCache();
+
+    /**
+     * Listens for builds, which may change the classes seen by CheckStyle.
+     */
+    private final CompilationStatusListener compilationListener = new ModuleOutputListener();
+
+    /**
+     * Results of previous scans, keyed on file content.
+     */
+    private final AuditResultCache resultCache = new AuditResultCache();
+
+    /**
+     * Scheduler for on-the-fly inspections.
+     */
+    private final InspectionScheduler inspectionScheduler;
+
     /**
      * Configuration store.
      */
@@ -112,6 +168,7 @@ public final class CheckStylePlugin extends CheckinHandlerFactory implements Pro
     public CheckStylePlugin(final Project project) {
         this.project = project;
         this.configuration = new CheckStyleConfiguration(project);
+        this.inspectionScheduler = new InspectionScheduler(project);
 
         try {
             if (project != null) {
@@ -184,22 +241,13 @@ public final class CheckStylePlugin extends CheckinHandlerFactory implements Pro
             final List<String> thirdPartyClasses
                     = configuration.getThirdPartyClassPath();
             if (thirdPartyClasses.size() > 0) {
-                final URL[] urlList = new URL[thirdPartyClasses.size()];
-                int index = 0;
+                final List<File> classpath = new ArrayList<File>();
                 for (final String pathElement : thirdPartyClasses) {
-                    try {
-                        // toURI().toURL() escapes, whereas toURL() doesn't.
-                        urlList[index] = new File(pathElement).toURI().toURL();
-                        ++index;
-
-                    } catch (MalformedURLException e) {
-                        LOG.error("Third party classpath element is malformed: "
-                                + pathElement, e);
-                    }
+                    classpath.add(new File(pathElement));
                 }
 
-                thirdPartyClassloader = new URLClassLoader(urlList,
-                        getClass().getClassLoader());
+                thirdPartyClassloader = new IndexedClassLoader(classpath,
+                        getClass().getClassLoader(), getJarIndexDirectory());
 
             } else {
                 thirdPartyClassloader = getClass().getClassLoader();
@@ -209,6 +257,62 @@ public final class CheckStylePlugin extends CheckinHandlerFactory implements Pro
         return thirdPartyClassloader;
     }
 
+    /**
+     * Get the directory to store the package indices of third party libraries in.
+     *
+     * @return the jar index directory, or null if it is not available.
+     */
+    private File getJarIndexDirectory() {
+        try {
+            return new File(new File(PathManager.getSystemPath(), RESULT_STORE_DIRECTORY), JAR_INDEX_DIRECTORY);
+
+        } catch (RuntimeException e) {
+            LOG.debug("Could not find system path for jar indices", e);
+            return null;
+        }
+    }
+
+    /**
+     * Get a fingerprint of the third party libraries, which changes when any of the libraries
+     * are added, removed or modified.
+     *
+     * @return the fingerprint of the third party classpath.
+     */
+    public synchronized String getThirdPartyClasspathFingerprint() {
+        if (thirdPartyClasspathFingerprint == null) {
+            final StringBuilder classpathDescription = new StringBuilder();
+            for (final String pathElement : configuration.getThirdPartyClassPath()) {
+                final File pathFile = new File(pathElement);
+                classpathDescription.append(pathFile.getAbsolutePath())
+                        .append(':').append(pathFile.length())
+                        .append(':').append(pathFile.lastModified())
+                        .append('\n');
+            }
+
+            thirdPartyClasspathFingerprint = AuditResultCache.fingerprint(classpathDescription.toString());
+        }
+
+        return thirdPartyClasspathFingerprint;
+    }
+
+    /**
+     * Get the cache of results from previous scans.
+     *
+     * @return the result cache.
+     */
+    public AuditResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Get the scheduler for on-the-fly inspections.
+     *
+     * @return the inspection scheduler.
+     */
+    public InspectionScheduler getInspectionScheduler() {
+        return inspectionScheduler;
+    }
+
     /**
      * Get the plugin configuration.
      *
@@ -274,6 +378,11 @@ public final class CheckStylePlugin extends CheckinHandlerFactory implements Pro
         LOG.debug("Project opened.");
 
         registerToolWindow();
+
+        resultCache.setStore(new AuditResultStore(getResultStoreDirectory()));
+        CompilerManager.getInstance(project).addCompilationStatusListener(compilationListener);
+
+        prewarmCheckers();
     }
 
     /**
@@ -283,6 +392,28 @@ public final class CheckStylePlugin extends CheckinHandlerFactory implements Pro
         LOG.debug("Project closed.");
 
         unregisterToolWindow();
+
+        CompilerManager.getInstance(project).removeCompilationStatusListener(compilationListener);
+        resultCache.setStore(null);
+        inspectionScheduler.shutdown();
+        moduleClassLoaders.clear();
+    }
+
+    /**
+     * Get the directory to persist scan results for this project in.
+     *
+     * @return the result store directory.
+     */
+    private File getResultStoreDirectory() {
+        final String projectIdentifier;
+        if (project.getPresentableUrl() != null) {
+            projectIdentifier = project.getPresentableUrl();
+        } else {
+            projectIdentifier = project.getName();
+        }
+
+        return new File(new File(PathManager.getSystemPath(), RESULT_STORE_DIRECTORY),
+                project.getName() + "." + AuditResultCache.fingerprint(projectIdentifier));
     }
 
     /**
@@ -370,7 +501,16 @@ public final class CheckStylePlugin extends CheckinHandlerFactory implements Pro
         reset(); // save current data as unmodified
 
         CheckerFactory.getInstance().invalidateCache();
+        resetThirdPartyClassloader();
+        inspectionScheduler.invalidate();
+
+        prewarmCheckers();
+    }
+
+    private synchronized void resetThirdPartyClassloader() {
         thirdPartyClassloader = null; // reset to force reload
+        thirdPartyClasspathFingerprint = null;
+        moduleClassLoaders.clear();
     }
 
     /**
@@ -430,7 +570,11 @@ public final class CheckStylePlugin extends CheckinHandlerFactory implements Pro
             return;
         }
 
-        final CheckFilesThread checkFilesThread = new CheckFilesThread(this, files);
+        // pick up any classes built outside of the IDE
+        moduleClassLoaders.outputChanged();
+
+        final CheckFilesThread checkFilesThread = new CheckFilesThread(
+                this, files, scanGeneration.incrementAndGet());
         checkFilesThread.setPriority(Thread.MIN_PRIORITY);
 
         synchronized (checksInProgress) {
@@ -440,6 +584,17 @@ public final class CheckStylePlugin extends CheckinHandlerFactory implements Pro
         checkFilesThread.start();
     }
 
+    /**
+     * Is a scan the most recent to be started? Results of earlier scans should no longer
+     * be displayed.
+     *
+     * @param generation the generation of the scan, as given when it was started.
+     * @return true if no later scan has been started.
+     */
+    public boolean isCurrentScan(final int generation) {
+        return scanGeneration.get() == generation;
+    }
+
     /**
      * Stop any checks in progress.
      */
@@ -518,19 +673,141 @@ public final class CheckStylePlugin extends CheckinHandlerFactory implements Pro
     }
 
     /**
-     * Build a class loader for the compilation path of the module.
+     * Build checkers in the background for the active configuration of each module, so the
+     * first inspection does not wait for a checker to be built. Checkers are pooled by
+     * configuration and module class loader, so each distinct pair is warmed once. The project
+     * configuration is only warmed when there are no modules, as it is otherwise used only for
+     * files outside of any module.
+     * <p/>
+     * This may be called on the event dispatch thread, as the class loaders are built in the
+     * background.
+     */
+    public void prewarmCheckers() {
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            public void run() {
+                if (!project.isDisposed()) {
+                    prewarmActiveCheckers();
+                }
+            }
+        });
+    }
+
+    private void prewarmActiveCheckers() {
+        final Map<Module, ConfigurationLocation> activeLocations = ApplicationManager.getApplication().runReadAction(
+                new Computable<Map<Module, ConfigurationLocation>>() {
+                    public Map<Module, ConfigurationLocation> compute() {
+                        final Map<Module, ConfigurationLocation> locations
+                                = new LinkedHashMap<Module, ConfigurationLocation>();
+                        if (project.isDisposed()) {
+                            return locations;
+                        }
+
+                        for (final Module module : ModuleManager.getInstance(project).getModules()) {
+                            final CheckStyleModulePlugin checkStyleModulePlugin
+                                    = module.getComponent(CheckStyleModulePlugin.class);
+                            if (checkStyleModulePlugin != null) {
+                                locations.put(module,
+                                        checkStyleModulePlugin.getConfiguration().getActiveConfiguration());
+                            }
+                        }
+                        return locations;
+                    }
+                });
+
+        final Map<ClassLoader, Set<ConfigurationLocation>> prewarmedLocations
+                = new HashMap<ClassLoader, Set<ConfigurationLocation>>();
+
+        for (final Map.Entry<Module, ConfigurationLocation> activeLocation : activeLocations.entrySet()) {
+            prewarmChecker(activeLocation.getValue(), activeLocation.getKey(), prewarmedLocations);
+        }
+
+        if (activeLocations.isEmpty()) {
+            prewarmChecker(configuration.getActiveConfiguration(), null, prewarmedLocations);
+        }
+    }
+
+    private void prewarmChecker(final ConfigurationLocation location,
+                                final Module module,
+                                final Map<ClassLoader, Set<ConfigurationLocation>> prewarmedLocations) {
+        if (location == null) {
+            return;
+        }
+
+        final ClassLoader moduleClassLoader;
+        try {
+            moduleClassLoader = acquireModuleClassLoader(module);
+
+        } catch (MalformedURLException e) {
+            LOG.debug("Couldn't build class loader to prewarm checker for " + location.getLocation(), e);
+            return;
+        }
+
+        Set<ConfigurationLocation> locationsForClassLoader = prewarmedLocations.get(moduleClassLoader);
+        if (locationsForClassLoader == null) {
+            locationsForClassLoader = new HashSet<ConfigurationLocation>();
+            prewarmedLocations.put(moduleClassLoader, locationsForClassLoader);
+        }
+
+        if (!locationsForClassLoader.add(location)) {
+            releaseModuleClassLoader(moduleClassLoader);
+            return;
+        }
+
+        // the class loader is held until the checker is built, so it is not evicted first
+        CheckerFactory.getInstance().prewarmChecker(location, module, moduleClassLoader, new Runnable() {
+            public void run() {
+                releaseModuleClassLoader(moduleClassLoader);
+            }
+        });
+    }
+
+    /**
+     * Get a class loader for the compilation path of the module. Modules with the same
+     * compilation path share a class loader, which must be handed back via
+     * {@link #releaseModuleClassLoader(ClassLoader)} once finished with. The compilation path
+     * is read within a read action, so this may be called from any thread.
      *
      * @param module the module in question.
      * @return the class loader to use, or null if none applicable.
      * @throws MalformedURLException if the URL conversion fails.
      */
-    public ClassLoader buildModuleClassLoader(final Module module)
+    public ClassLoader acquireModuleClassLoader(final Module module)
             throws MalformedURLException {
 
         if (module == null) {
             return null;
         }
 
+        final List<String> filePaths = ApplicationManager.getApplication().runReadAction(
+                new Computable<List<String>>() {
+                    public List<String> compute() {
+                        return compilationPathsOf(module);
+                    }
+                });
+        if (filePaths == null) {
+            return null;
+        }
+
+        final List<URL> outputPaths = new ArrayList<URL>();
+        for (final String filePath : filePaths) {
+            outputPaths.add(new File(filePath).toURL());
+        }
+
+        return moduleClassLoaders.acquire(outputPaths, getThirdPartyClassloader(),
+                getThirdPartyClasspathFingerprint());
+    }
+
+    /**
+     * Get the paths of the compilation classpath of a module. Must be called within a read action.
+     *
+     * @param module the module in question.
+     * @return the paths, or null if the module has been disposed or has no root manager.
+     */
+    private List<String> compilationPathsOf(final Module module) {
+        if (module.isDisposed()) {
+            return null;
+        }
+
         final ModuleRootManager rootManager
                 = ModuleRootManager.getInstance(module);
         if (rootManager == null) {
@@ -539,17 +816,39 @@ public final class CheckStylePlugin extends CheckinHandlerFactory implements Pro
             return null;
         }
 
-        final List<URL> outputPaths = new ArrayList<URL>();
+        final List<String> filePaths = new ArrayList<String>();
         for (final VirtualFile outputPath : rootManager.getFiles(OrderRootType.COMPILATION_CLASSES)) {
             String filePath = outputPath.getPath();
             if (filePath.endsWith("!/")) { // filter JAR suffix
                 filePath = filePath.substring(0, filePath.length() - 2);
             }
-            outputPaths.add(new File(filePath).toURL());
+            filePaths.add(filePath);
         }
+        return filePaths;
+    }
 
-        return new URLClassLoader(outputPaths.toArray(
-                new URL[outputPaths.size()]), getThirdPartyClassloader());
+    /**
+     * Get a fingerprint of the classpath of a module, which changes when the module's
+     * compilation classpath or the third party libraries change.
+     *
+     * @param moduleClassLoader the class loader acquired for the module. May be null.
+     * @return the fingerprint of the classpath.
+     */
+    public String getModuleClasspathFingerprint(final ClassLoader moduleClassLoader) {
+        final String moduleClasspathFingerprint = moduleClassLoaders.fingerprintOf(moduleClassLoader);
+        if (moduleClasspathFingerprint != null) {
+            return moduleClasspathFingerprint;
+        }
+        return getThirdPartyClasspathFingerprint();
+    }
+
+    /**
+     * Hand back a class loader acquired via {@link #acquireModuleClassLoader(Module)}.
+     *
+     * @param moduleClassLoader the class loader. May be null.
+     */
+    public void releaseModuleClassLoader(final ClassLoader moduleClassLoader) {
+        moduleClassLoaders.release(moduleClassLoader);
     }
 
     @NotNull
@@ -572,4 +871,18 @@ public final class CheckStylePlugin extends CheckinHandlerFactory implements Pro
             this.configuration = new HashMap<String, String>();
         }
     }
+
+    /**
+     * Replaces the class loaders of rebuilt modules and rechecks open files once a build
+     * has finished, so checks that load project classes see the new classes.
+     */
+    private class ModuleOutputListener implements CompilationStatusListener {
+        public void compilationFinished(final boolean aborted,
+                                        final int errors,
+                                        final int warnings,
+                                        final CompileContext compileContext) {
+            moduleClassLoaders.outputChanged();
+            inspectionScheduler.invalidate();
+        }
+    }
 }
@@ -13,8 +13,7 @@ import org.infernus.idea.checkstyle.CheckStyleConstants;
 import org.infernus.idea.checkstyle.CheckStylePlugin;
 import org.infernus.idea.checkstyle.exception.CheckStylePluginException;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * Action to execute a CheckStyle scan on the current project.
@@ -60,7 +59,7 @@ public class ScanProject extends BaseAction {
 
             if (sourceRoots != null && sourceRoots.length > 0) {
                 project.getComponent(CheckStylePlugin.class).checkFiles(
-                        flattenFiles(sourceRoots));
+                        Arrays.asList(sourceRoots));
             }
 
         } catch (Throwable e) {
@@ -72,28 +71,6 @@ public class ScanProject extends BaseAction {
         }
     }
 
-    /**
-     * Flatten a nested list of files, returning all files in the array.
-     *
-     * @param files the top level of files.
-     * @return the flattened list of files.
-     */
-    private List<VirtualFile> flattenFiles(final VirtualFile[] files) {
-        final List<VirtualFile> flattened = new ArrayList<VirtualFile>();
-
-        if (files != null) {
-            for (final VirtualFile file : files) {
-                flattened.add(file);
-
-                if (file.getChildren() != null) {
-                    flattened.addAll(flattenFiles(file.getChildren()));
-                }
-            }
-        }
-
-        return flattened;
-    }
-
     /**
      * {@inheritDoc}
      */
@@ -2,18 +2,30 @@ package org.infernus.idea.checkstyle.checker;
 
 import com.intellij.codeInspection.ProblemDescriptor;
 import com.intellij.openapi.module.Module;
-import com.intellij.openapi.module.ModuleUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiFile;
-import com.intellij.psi.PsiManager;
 import org.apache.log4j.Logger;
+import org.infernus.idea.checkstyle.CheckStyleModulePlugin;
 import org.infernus.idea.checkstyle.CheckStylePlugin;
+import org.infernus.idea.checkstyle.exception.CheckStylePluginException;
+import org.infernus.idea.checkstyle.model.ConfigurationLocation;
 
 import java.lang.reflect.InvocationTargetException;
+import java.net.MalformedURLException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Abstract CheckerThread.
@@ -22,6 +34,21 @@ public abstract class AbstractCheckerThread extends Thread {
 
     private static final Logger LOG = Logger.getLogger(AbstractCheckerThread.class);
 
+    /**
+     * The maximum number of scans to run at once.
+     */
+    private static final int MAX_SCAN_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The minimum number of files to scan in a single pass of a checker.
+     */
+    private static final int MIN_SHARD_SIZE = 50;
+
+    /**
+     * The files and directories the scan was requested for.
+     */
+    private final List<VirtualFile> virtualFiles;
+
     /**
      * Files to scan.
      */
@@ -30,10 +57,10 @@ public abstract class AbstractCheckerThread extends Thread {
     /**
      * Map modules to files.
      */
-    private final Map<Module, List<PsiFile>> moduleToFiles = new HashMap<Module, List<PsiFile>>();
+    private final Map<Module, List<PsiFile>> moduleToFiles = new LinkedHashMap<Module, List<PsiFile>>();
 
     /**
-     * Scan results.
+     * Scan results, or null if they are reported only via {@link #shardScanned(Map)}.
      */
     private Map<PsiFile, List<ProblemDescriptor>> fileResults;
 
@@ -41,27 +68,39 @@ public abstract class AbstractCheckerThread extends Thread {
 
     private CheckStylePlugin plugin;
 
+    /**
+     * The workers for the scan in progress, if any.
+     */
+    private ExecutorService scanExecutor;
+
     public AbstractCheckerThread(final CheckStylePlugin checkStylePlugin,
                                  final List<VirtualFile> virtualFiles) {
         this.plugin = checkStylePlugin;
 
-        if (files == null) {
+        if (virtualFiles == null) {
             throw new IllegalArgumentException("Files may not be null.");
         }
-        // this needs to be done on the main thread.
-        final PsiManager psiManager = PsiManager.getInstance(this.plugin.getProject());
-        for (final VirtualFile virtualFile : virtualFiles) {
-            buildFilesList(psiManager, virtualFile);
-        }
+        this.virtualFiles = new ArrayList<VirtualFile>(virtualFiles);
+    }
 
-        for (final PsiFile file : files) {
-            final Module module = ModuleUtil.findModuleForPsiElement(file);
-            List<PsiFile> filesForModule = moduleToFiles.get(module);
-            if (filesForModule == null) {
-                filesForModule = new ArrayList<PsiFile>();
-                moduleToFiles.put(module, filesForModule);
-            }
-            filesForModule.add(file);
+    /**
+     * Find the files to scan beneath the files and directories given to the thread. This is
+     * done on the scan thread, rather than when the thread is created, as a large selection
+     * may take some time to walk.
+     *
+     * @throws InterruptedException if the thread is interrupted while the files are found.
+     */
+    protected void collectFiles() throws InterruptedException {
+        final boolean includeTestFiles = plugin.getConfiguration().isScanningTestClasses();
+        final Map<Module, List<PsiFile>> collectedFiles = new FileCollector(plugin.getProject(), includeTestFiles)
+                .collect(virtualFiles);
+
+        moduleToFiles.clear();
+        moduleToFiles.putAll(collectedFiles);
+
+        files.clear();
+        for (final List<PsiFile> filesForModule : collectedFiles.values()) {
+            files.addAll(filesForModule);
         }
     }
 
@@ -91,65 +130,256 @@ public abstract class AbstractCheckerThread extends Thread {
 
     public void stopCheck() {
         setRunning(false);
-    }
 
-    /**
-     * Process each virtual file, adding to the map or finding children if a container.
-     *
-     * @param psiManager  the current manager.
-     * @param virtualFile the file to process.
-     */
-    private void buildFilesList(final PsiManager psiManager, final VirtualFile virtualFile) {
-        if (virtualFile.isDirectory()) {
-            for (final VirtualFile child : virtualFile.getChildren()) {
-                buildFilesList(psiManager, child);
+        synchronized (this) {
+            if (scanExecutor != null) {
+                // queued scans will be skipped; those in progress are left to finish
+                scanExecutor.shutdown();
             }
+        }
+    }
 
-        } else {
-            final PsiFile psiFile = psiManager.findFile(virtualFile);
-            if (psiFile != null) {
-                files.add(psiFile);
+    protected void processFilesForModuleInfoAndScan() throws Throwable {
+        final List<ShardScan> shardScans = new ArrayList<ShardScan>();
+        final List<ClassLoader> moduleClassLoaders = new ArrayList<ClassLoader>();
+        try {
+            queueShardScans(shardScans, moduleClassLoaders);
+            scanShards(shardScans);
+
+        } finally {
+            for (final ClassLoader moduleClassLoader : moduleClassLoaders) {
+                plugin.releaseModuleClassLoader(moduleClassLoader);
             }
         }
     }
 
-    protected void processFilesForModuleInfoAndScan() throws Throwable {
+    private void queueShardScans(final List<ShardScan> shardScans,
+                                 final List<ClassLoader> moduleClassLoaders)
+            throws MalformedURLException {
         for (final Module module : moduleToFiles.keySet()) {
-            if (!isRunning()) {
-                break;
+            if (module == null) {
+                continue;
             }
 
-            if (module == null) {
+            final ConfigurationLocation location = getConfigurationLocation(module);
+            if (location == null) {
                 continue;
             }
 
             final List<PsiFile> filesForModule = moduleToFiles.get(module);
+            final List<List<PsiFile>> shards = shard(filesForModule);
+
+            final ClassLoader moduleClassLoader = plugin.acquireModuleClassLoader(module);
+            moduleClassLoaders.add(moduleClassLoader);
+
+            for (final List<PsiFile> shard : shards) {
+                shardScans.add(new ShardScan(shard, location, moduleClassLoader));
+            }
+        }
+    }
 
-            final ClassLoader moduleClassLoader = plugin.buildModuleClassLoader(module);
+    private void scanShards(final List<ShardScan> shardScans) throws Throwable {
+        if (shardScans.isEmpty()) {
+            return;
+        }
 
-            final FileScanner fileScanner = new FileScanner(plugin, filesForModule, moduleClassLoader);
-            this.runFileScanner(fileScanner);
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(MAX_SCAN_THREADS, shardScans.size()), new ScanThreadFactory());
+        synchronized (this) {
+            scanExecutor = executor;
+        }
+
+        try {
+            final List<Future<Object>> pendingScans = new ArrayList<Future<Object>>();
+            for (final ShardScan shardScan : shardScans) {
+                try {
+                    pendingScans.add(executor.submit(shardScan));
 
-            // check for errors
-            if (fileScanner.getError() != null) {
-                // throw any exceptions from the thread
-                throw fileScanner.getError();
+                } catch (RejectedExecutionException e) {
+                    LOG.debug("Scan was stopped before all files were queued");
+                    break;
+                }
             }
 
-            // add results if necessary
-            if (fileScanner.getResults() != null) {
-                for (final PsiFile psiFile : filesForModule) {
-                    final List<ProblemDescriptor> resultsForFile = fileScanner.getResults().get(psiFile);
-                    if (resultsForFile != null && !resultsForFile.isEmpty()) {
-                        getFileResults().put(psiFile, new ArrayList<ProblemDescriptor>(resultsForFile));
-                    }
+            for (final Future<Object> pendingScan : pendingScans) {
+                if (!isRunning()) {
+                    break;
+                }
+
+                try {
+                    pendingScan.get();
+
+                } catch (ExecutionException e) {
+                    // throw any exceptions from the scan
+                    throw e.getCause();
                 }
-            } else {
-                LOG.warn("No results found for scan");
+            }
+
+        } finally {
+            executor.shutdownNow();
+            awaitTermination(executor);
+
+            synchronized (this) {
+                scanExecutor = null;
             }
         }
     }
 
+    /**
+     * Wait for the scans in progress to finish, so that the checkers and class loaders
+     * they are using are not released beneath them.
+     *
+     * @param executor the executor running the scans.
+     */
+    private void awaitTermination(final ExecutorService executor) {
+        boolean interrupted = false;
+        while (!executor.isTerminated()) {
+            try {
+                executor.awaitTermination(1, TimeUnit.SECONDS);
+
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Split a module's files into shards that may be scanned in parallel.
+     *
+     * @param filesForModule the files in the module.
+     * @return the shards.
+     */
+    private List<List<PsiFile>> shard(final List<PsiFile> filesForModule) {
+        final int shardSize = Math.max(MIN_SHARD_SIZE,
+                (filesForModule.size() + MAX_SCAN_THREADS - 1) / MAX_SCAN_THREADS);
+
+        final List<List<PsiFile>> shards = new ArrayList<List<PsiFile>>();
+        for (int shardStart = 0; shardStart < filesForModule.size(); shardStart += shardSize) {
+            shards.add(filesForModule.subList(shardStart,
+                    Math.min(shardStart + shardSize, filesForModule.size())));
+        }
+        return shards;
+    }
+
+    private ConfigurationLocation getConfigurationLocation(final Module module) {
+        final CheckStyleModulePlugin checkStyleModulePlugin = module.getComponent(CheckStyleModulePlugin.class);
+        if (checkStyleModulePlugin == null) {
+            throw new IllegalStateException("Couldn't get checkstyle module plugin");
+        }
+        return checkStyleModulePlugin.getConfiguration().getActiveConfiguration();
+    }
+
+    /**
+     * Scan a shard of a module's files and merge the results into the file results.
+     *
+     * @param filesForShard     the files to scan, all of which belong to the same module.
+     * @param location          the configuration for the module.
+     * @param moduleClassLoader the class loader for the module.
+     * @throws Throwable if the scan fails.
+     */
+    private void scanShard(final List<PsiFile> filesForShard,
+                           final ConfigurationLocation location,
+                           final ClassLoader moduleClassLoader) throws Throwable {
+        if (!isRunning()) {
+            return;
+        }
+
+        final FileScanner fileScanner = new FileScanner(plugin, filesForShard, location, moduleClassLoader);
+        this.runFileScanner(fileScanner);
+
+        // check for errors
+        if (fileScanner.getError() != null) {
+            // throw any exceptions from the thread
+            throw fileScanner.getError();
+        }
+
+        if (!isRunning()) {
+            LOG.debug("Discarding results of a stopped scan");
+            return;
+        }
+
+        // add results if necessary
+        if (fileScanner.getResults() != null) {
+            final Map<PsiFile, List<ProblemDescriptor>> shardResults = new HashMap<PsiFile, List<ProblemDescriptor>>();
+            for (final PsiFile psiFile : filesForShard) {
+                final List<ProblemDescriptor> resultsForFile = fileScanner.getResults().get(psiFile);
+                if (resultsForFile != null && !resultsForFile.isEmpty()) {
+                    shardResults.put(psiFile, new ArrayList<ProblemDescriptor>(resultsForFile));
+                }
+            }
+
+            final Map<PsiFile, List<ProblemDescriptor>> fileResults = getFileResults();
+            if (fileResults != null) {
+                synchronized (fileResults) {
+                    fileResults.putAll(shardResults);
+                }
+            }
+
+            shardScanned(shardResults);
+
+        } else {
+            LOG.warn("No results found for scan");
+        }
+    }
+
     public abstract void runFileScanner(FileScanner fileScanner) throws InterruptedException, InvocationTargetException;
 
+    /**
+     * Called as each shard of files is scanned, allowing results to be reported before the
+     * scan is complete. This may be called concurrently from several scan threads.
+     *
+     * @param shardResults the results for the files of the shard that have problems.
+     */
+    protected void shardScanned(final Map<PsiFile, List<ProblemDescriptor>> shardResults) {
+        // nothing to do by default
+    }
+
+    /**
+     * Task to scan a shard of a module's files.
+     */
+    private class ShardScan implements Callable<Object> {
+        private final List<PsiFile> files;
+        private final ConfigurationLocation location;
+        private final ClassLoader moduleClassLoader;
+
+        public ShardScan(final List<PsiFile> files,
+                         final ConfigurationLocation location,
+                         final ClassLoader moduleClassLoader) {
+            this.files = files;
+            this.location = location;
+            this.moduleClassLoader = moduleClassLoader;
+        }
+
+        public Object call() throws Exception {
+            try {
+                scanShard(files, location, moduleClassLoader);
+                return null;
+
+            } catch (Exception e) {
+                throw e;
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new CheckStylePluginException("File scan failed", t);
+            }
+        }
+    }
+
+    /**
+     * Factory for low priority scan threads.
+     */
+    private static class ScanThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "CheckStyle-IDEA Scan " + threadCount.incrementAndGet());
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
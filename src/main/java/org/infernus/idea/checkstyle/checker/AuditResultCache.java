@@ -0,0 +1,272 @@
+package org.infernus.idea.checkstyle.checker;
+
+import com.puppycrawl.tools.checkstyle.api.AuditEvent;
+import com.puppycrawl.tools.checkstyle.api.LocalizedMessage;
+import com.puppycrawl.tools.checkstyle.api.SeverityLevel;
+import org.infernus.idea.checkstyle.util.MessageTable;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A cache of CheckStyle results for files that have already been scanned.
+ * <p/>
+ * Results are keyed on the content and path of the file, the configuration it was checked with
+ * and the classpath of its module, so an unchanged file need not be passed to CheckStyle again. The cache
+ * may be backed by an {@link AuditResultStore}, in which case results are also kept between sessions.
+ */
+public class AuditResultCache {
+
+    /**
+     * The maximum number of files to hold results for.
+     */
+    private static final int MAX_ENTRIES = 20000;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private AuditResultStore store;
+
+    private final Map<String, List<CachedAuditEvent>> results
+            = new LinkedHashMap<String, List<CachedAuditEvent>>(16, 0.75f, true) {
+        private static final long serialVersionUID = -2926592196376316233L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, List<CachedAuditEvent>> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * Build the cache key for a file.
+     * <p/>
+     * The path is part of the key as many checks, and the suppression filter, depend on where
+     * the file is as well as on its content.
+     *
+     * @param fileText             the content of the file.
+     * @param filePath             the path of the file as passed to CheckStyle.
+     * @param configFingerprint    the fingerprint of the configuration the file is checked with.
+     * @param classpathFingerprint the fingerprint of the classpath the checker loads classes from.
+     * @return the key.
+     */
+    public static String keyFor(final String fileText,
+                                final String filePath,
+                                final String configFingerprint,
+                                final String classpathFingerprint) {
+        return fingerprint(fileText) + ":" + fingerprint(filePath) + ":" + configFingerprint
+                + ":" + classpathFingerprint;
+    }
+
+    /**
+     * Create a fingerprint of the given text.
+     *
+     * @param text the text.
+     * @return a hex-encoded digest of the text.
+     */
+    public static String fingerprint(final String text) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("MD5");
+            return toHex(digest.digest(text.getBytes("UTF-8")));
+
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not available", e);
+        }
+    }
+
+    /**
+     * Hex-encode the given bytes.
+     *
+     * @param bytes the bytes.
+     * @return the hex encoding of the bytes.
+     */
+    public static String toHex(final byte[] bytes) {
+        final char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; ++i) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Back this cache with a persistent store, closing any existing store.
+     *
+     * @param newStore the store, or null to hold results in memory only.
+     */
+    public void setStore(final AuditResultStore newStore) {
+        final AuditResultStore previousStore;
+        synchronized (results) {
+            previousStore = store;
+            store = newStore;
+        }
+
+        if (previousStore != null && previousStore != newStore) {
+            previousStore.close();
+        }
+    }
+
+    /**
+     * Get the cached events for a file.
+     *
+     * @param filePath the path of the file.
+     * @param key      the key of the file.
+     * @return the events, or null if the file has no cached results.
+     */
+    public List<CachedAuditEvent> get(final String filePath,
+                                      final String key) {
+        final AuditResultStore currentStore;
+        synchronized (results) {
+            final List<CachedAuditEvent> cachedEvents = results.get(key);
+            if (cachedEvents != null || store == null) {
+                return cachedEvents;
+            }
+            currentStore = store;
+        }
+
+        final List<CachedAuditEvent> storedEvents = currentStore.get(filePath, key);
+        if (storedEvents != null) {
+            synchronized (results) {
+                results.put(key, storedEvents);
+            }
+        }
+        return storedEvents;
+    }
+
+    /**
+     * Store the events for a file.
+     *
+     * @param filePath the path of the file.
+     * @param key      the key of the file.
+     * @param events   the events raised when the file was checked.
+     */
+    public void put(final String filePath,
+                    final String key,
+                    final List<AuditEvent> events) {
+        final List<CachedAuditEvent> cachedEvents = new ArrayList<CachedAuditEvent>(events.size());
+        for (final AuditEvent event : events) {
+            if (event.getLocalizedMessage() != null) {
+                cachedEvents.add(new CachedAuditEvent(event.getLocalizedMessage()));
+            }
+        }
+
+        final List<CachedAuditEvent> immutableEvents = Collections.unmodifiableList(cachedEvents);
+        final AuditResultStore currentStore;
+        synchronized (results) {
+            results.put(key, immutableEvents);
+            currentStore = store;
+        }
+
+        if (currentStore != null && filePath != null) {
+            currentStore.put(filePath, key, immutableEvents);
+        }
+    }
+
+    /**
+     * Remove all cached results.
+     */
+    public void clear() {
+        final AuditResultStore currentStore;
+        synchronized (results) {
+            results.clear();
+            currentStore = store;
+        }
+
+        if (currentStore != null) {
+            currentStore.clear();
+        }
+    }
+
+    /**
+     * The data of an audit event, detached from the file it was raised against.
+     */
+    public static final class CachedAuditEvent {
+        private final int line;
+        private final int column;
+        private final SeverityLevel severity;
+        private final String moduleId;
+        private final String sourceName;
+        private final String message;
+
+        private CachedAuditEvent(final LocalizedMessage localizedMessage) {
+            this(localizedMessage.getLineNo(), localizedMessage.getColumnNo(),
+                    localizedMessage.getSeverityLevel(), localizedMessage.getModuleId(),
+                    localizedMessage.getSourceName(), localizedMessage.getMessage());
+        }
+
+        CachedAuditEvent(final int line,
+                         final int column,
+                         final SeverityLevel severity,
+                         final String moduleId,
+                         final String sourceName,
+                         final String message) {
+            this.line = line;
+            this.column = column;
+            this.severity = severity;
+            this.moduleId = MessageTable.intern(moduleId);
+            this.sourceName = MessageTable.intern(sourceName);
+            this.message = MessageTable.intern(message);
+        }
+
+        private static Class<?> classFor(final String sourceName,
+                                         final ClassLoader classLoader) {
+            try {
+                return Class.forName(sourceName, false, classLoader != null
+                        ? classLoader : AuditResultCache.class.getClassLoader());
+
+            } catch (ClassNotFoundException e) {
+                return Object.class;
+            } catch (LinkageError e) {
+                return Object.class;
+            }
+        }
+
+        int getLine() {
+            return line;
+        }
+
+        int getColumn() {
+            return column;
+        }
+
+        SeverityLevel getSeverity() {
+            return severity;
+        }
+
+        String getModuleId() {
+            return moduleId;
+        }
+
+        String getSourceName() {
+            return sourceName;
+        }
+
+        String getMessage() {
+            return message;
+        }
+
+        /**
+         * Recreate the audit event for the given file.
+         *
+         * @param source      the source of the event.
+         * @param fileName    the name of the file the event is raised against.
+         * @param classLoader the class loader the checker was built with, or null for the default.
+         * @return the event.
+         */
+        public AuditEvent toAuditEvent(final Object source,
+                                       final String fileName,
+                                       final ClassLoader classLoader) {
+            // the custom message is formatted with the arguments, hence the message is
+            // passed as an argument to avoid it being parsed as a format
+            final LocalizedMessage localizedMessage = new LocalizedMessage(line, column, null, message,
+                    new Object[]{message}, severity, moduleId, classFor(sourceName, classLoader), "{0}");
+            return new AuditEvent(source, fileName, localizedMessage);
+        }
+    }
+}
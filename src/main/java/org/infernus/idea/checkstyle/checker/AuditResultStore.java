@@ -0,0 +1,426 @@
+package org.infernus.idea.checkstyle.checker;
+
+import com.puppycrawl.tools.checkstyle.api.SeverityLevel;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NonNls;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A persistent store of CheckStyle results, allowing results to survive a restart of the IDE.
+ * <p/>
+ * Results are appended to a single binary file, which holds at most one live record per file
+ * path; superseded records are dropped when the store is compacted. The index of the store is
+ * read when it is first used, and the events for a file are only read when requested.
+ */
+public class AuditResultStore {
+
+    /**
+     * Logger for this class.
+     */
+    @NonNls
+    private static final Logger LOG = Logger.getLogger(AuditResultStore.class);
+
+    @NonNls
+    private static final String STORE_FILE_NAME = "results.dat";
+    @NonNls
+    private static final String COMPACTED_FILE_NAME = "results.tmp";
+
+    private static final int MAGIC = 0x43535243;
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final int MAX_STRING_LENGTH = 1024 * 1024;
+
+    /**
+     * The maximum size of the store, in bytes.
+     */
+    private static final long MAX_STORE_SIZE = 32L * 1024 * 1024;
+
+    /**
+     * The size below which the store will not be compacted, in bytes.
+     */
+    private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+
+    /**
+     * Live records in the store, ordered from the oldest to the most recently written.
+     */
+    private final Map<String, Record> index = new LinkedHashMap<String, Record>();
+
+    private final File storeDirectory;
+
+    private RandomAccessFile storeFile;
+    private long liveBytes;
+    private boolean loaded;
+    private boolean broken;
+
+    /**
+     * Create a new store.
+     *
+     * @param storeDirectory the directory to hold the store in.
+     */
+    public AuditResultStore(final File storeDirectory) {
+        if (storeDirectory == null) {
+            throw new IllegalArgumentException("Store directory is required");
+        }
+
+        this.storeDirectory = storeDirectory;
+    }
+
+    /**
+     * Get the stored events for a file.
+     *
+     * @param filePath the path of the file.
+     * @param key      the key of the file.
+     * @return the events, or null if the store holds no results for this version of the file.
+     */
+    public synchronized List<AuditResultCache.CachedAuditEvent> get(final String filePath,
+                                                                    final String key) {
+        if (!ensureLoaded()) {
+            return null;
+        }
+
+        final Record record = index.get(filePath);
+        if (record == null || !record.key.equals(key)) {
+            return null;
+        }
+
+        try {
+            final byte[] recordBytes = new byte[record.length];
+            storeFile.seek(record.offset + 4);
+            storeFile.readFully(recordBytes);
+
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(recordBytes));
+            readString(in); // file path
+            readString(in); // key
+
+            final int eventCount = in.readInt();
+            final List<AuditResultCache.CachedAuditEvent> events
+                    = new ArrayList<AuditResultCache.CachedAuditEvent>(eventCount);
+            for (int i = 0; i < eventCount; ++i) {
+                events.add(new AuditResultCache.CachedAuditEvent(in.readInt(), in.readInt(),
+                        SeverityLevel.getInstance(readString(in)), readString(in),
+                        readString(in), readString(in)));
+            }
+            return Collections.unmodifiableList(events);
+
+        } catch (Exception e) {
+            LOG.warn("Could not read stored results for " + filePath, e);
+            removeRecord(filePath);
+            return null;
+        }
+    }
+
+    /**
+     * Store the events for a file, replacing any results previously stored for it.
+     *
+     * @param filePath the path of the file.
+     * @param key      the key of the file.
+     * @param events   the events raised when the file was checked.
+     */
+    public synchronized void put(final String filePath,
+                                 final String key,
+                                 final List<AuditResultCache.CachedAuditEvent> events) {
+        if (!ensureLoaded()) {
+            return;
+        }
+
+        try {
+            final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(recordBytes);
+            out.writeInt(0); // length, filled in below
+            writeString(out, filePath);
+            writeString(out, key);
+            out.writeInt(events.size());
+            for (final AuditResultCache.CachedAuditEvent event : events) {
+                out.writeInt(event.getLine());
+                out.writeInt(event.getColumn());
+                writeString(out, event.getSeverity().getName());
+                writeString(out, event.getModuleId());
+                writeString(out, event.getSourceName());
+                writeString(out, event.getMessage());
+            }
+            out.flush();
+
+            final byte[] record = recordBytes.toByteArray();
+            final int length = record.length - 4;
+            record[0] = (byte) (length >>> 24);
+            record[1] = (byte) (length >>> 16);
+            record[2] = (byte) (length >>> 8);
+            record[3] = (byte) length;
+
+            final long offset = storeFile.length();
+            storeFile.seek(offset);
+            storeFile.write(record);
+
+            removeRecord(filePath);
+            index.put(filePath, new Record(offset, length, key));
+            liveBytes += record.length;
+
+            if (storeFile.length() > MAX_STORE_SIZE) {
+                compact();
+            }
+
+        } catch (IOException e) {
+            LOG.warn("Could not store results for " + filePath, e);
+            disable();
+        }
+    }
+
+    /**
+     * Remove all stored results.
+     */
+    public synchronized void clear() {
+        if (!ensureLoaded()) {
+            return;
+        }
+
+        try {
+            index.clear();
+            liveBytes = 0;
+            storeFile.setLength(0);
+            writeHeader(storeFile);
+
+        } catch (IOException e) {
+            LOG.warn("Could not clear result store", e);
+            disable();
+        }
+    }
+
+    /**
+     * Close the store, compacting it if worthwhile. The store may be reopened by further use.
+     */
+    public synchronized void close() {
+        if (storeFile == null) {
+            return;
+        }
+
+        try {
+            if (isCompactionRequired()) {
+                compact();
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not compact result store", e);
+        }
+
+        closeStoreFile();
+        index.clear();
+        liveBytes = 0;
+        loaded = false;
+    }
+
+    private boolean ensureLoaded() {
+        if (broken) {
+            return false;
+        }
+        if (loaded) {
+            return true;
+        }
+
+        try {
+            if (!storeDirectory.exists() && !storeDirectory.mkdirs()) {
+                throw new IOException("Could not create directory " + storeDirectory.getAbsolutePath());
+            }
+
+            storeFile = new RandomAccessFile(new File(storeDirectory, STORE_FILE_NAME), "rw");
+            readIndex();
+            loaded = true;
+
+            if (isCompactionRequired()) {
+                compact();
+            }
+            return true;
+
+        } catch (IOException e) {
+            LOG.warn("Could not open result store in " + storeDirectory.getAbsolutePath(), e);
+            disable();
+            return false;
+        }
+    }
+
+    private void readIndex() throws IOException {
+        index.clear();
+        liveBytes = 0;
+
+        final long fileLength = storeFile.length();
+        if (fileLength < HEADER_LENGTH) {
+            storeFile.setLength(0);
+            writeHeader(storeFile);
+            return;
+        }
+
+        storeFile.seek(0);
+        if (storeFile.readInt() != MAGIC || storeFile.readInt() != VERSION) {
+            LOG.info("Discarding result store of an unknown format");
+            storeFile.setLength(0);
+            writeHeader(storeFile);
+            return;
+        }
+
+        long offset = HEADER_LENGTH;
+        while (offset < fileLength) {
+            try {
+                storeFile.seek(offset);
+                final int length = storeFile.readInt();
+                if (length <= 0 || offset + 4 + length > fileLength) {
+                    throw new IOException("Truncated record at " + offset);
+                }
+
+                final String filePath = readString(storeFile);
+                final String key = readString(storeFile);
+
+                removeRecord(filePath);
+                index.put(filePath, new Record(offset, length, key));
+                liveBytes += 4 + length;
+
+                offset += 4 + length;
+
+            } catch (IOException e) {
+                // a partially written record is left by a crash during a write
+                LOG.info("Discarding incomplete result store records from offset " + offset);
+                storeFile.setLength(offset);
+                break;
+            }
+        }
+    }
+
+    private boolean isCompactionRequired() throws IOException {
+        final long fileLength = storeFile.length();
+        return fileLength > MIN_COMPACTION_SIZE && fileLength - HEADER_LENGTH > liveBytes * 2;
+    }
+
+    /**
+     * Rewrite the store holding only the live records, dropping the oldest records
+     * if the live records exceed the size limit.
+     *
+     * @throws IOException if the store cannot be rewritten.
+     */
+    private void compact() throws IOException {
+        // drop the least recently written records until we are comfortably within the limit
+        if (liveBytes > MAX_STORE_SIZE / 2) {
+            for (final Iterator<Record> i = index.values().iterator(); i.hasNext()
+                    && liveBytes > MAX_STORE_SIZE / 2;) {
+                liveBytes -= 4 + i.next().length;
+                i.remove();
+            }
+        }
+
+        final File compactedFile = new File(storeDirectory, COMPACTED_FILE_NAME);
+        final RandomAccessFile compactedStore = new RandomAccessFile(compactedFile, "rw");
+        final Map<String, Record> compactedIndex = new LinkedHashMap<String, Record>();
+        try {
+            compactedStore.setLength(0);
+            writeHeader(compactedStore);
+
+            long offset = HEADER_LENGTH;
+            for (final Map.Entry<String, Record> entry : index.entrySet()) {
+                final Record record = entry.getValue();
+
+                final byte[] recordBytes = new byte[4 + record.length];
+                storeFile.seek(record.offset);
+                storeFile.readFully(recordBytes);
+                compactedStore.write(recordBytes);
+
+                compactedIndex.put(entry.getKey(), new Record(offset, record.length, record.key));
+                offset += recordBytes.length;
+            }
+
+        } finally {
+            compactedStore.close();
+        }
+
+        closeStoreFile();
+
+        final File storeFileLocation = new File(storeDirectory, STORE_FILE_NAME);
+        if (!storeFileLocation.delete() || !compactedFile.renameTo(storeFileLocation)) {
+            throw new IOException("Could not replace " + storeFileLocation.getAbsolutePath());
+        }
+
+        storeFile = new RandomAccessFile(storeFileLocation, "rw");
+        index.clear();
+        index.putAll(compactedIndex);
+    }
+
+    private void removeRecord(final String filePath) {
+        final Record existingRecord = index.remove(filePath);
+        if (existingRecord != null) {
+            liveBytes -= 4 + existingRecord.length;
+        }
+    }
+
+    private void disable() {
+        broken = true;
+        index.clear();
+        liveBytes = 0;
+        closeStoreFile();
+    }
+
+    private void closeStoreFile() {
+        if (storeFile != null) {
+            try {
+                storeFile.close();
+            } catch (IOException e) {
+                // ignored
+            }
+            storeFile = null;
+        }
+    }
+
+    private static void writeHeader(final RandomAccessFile file) throws IOException {
+        file.seek(0);
+        file.writeInt(MAGIC);
+        file.writeInt(VERSION);
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        final byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final DataInput in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > MAX_STRING_LENGTH) {
+            throw new IOException("Invalid string length: " + length);
+        }
+
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * The location of a live record in the store.
+     */
+    private static final class Record {
+        private final long offset;
+        private final int length;
+        private final String key;
+
+        private Record(final long offset, final int length, final String key) {
+            this.offset = offset;
+            this.length = length;
+            this.key = key;
+        }
+    }
+}
@@ -1,38 +1,94 @@
 package org.infernus.idea.checkstyle.checker;
 
-import com.puppycrawl.tools.checkstyle.Checker;
 import com.puppycrawl.tools.checkstyle.api.Configuration;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
- * Key for checker cache.
+ * A configured checker and the configuration it was built from.
+ * <p/>
+ * A checker remains valid for as long as the configuration it was built from and any
+ * suppression files it uses are unchanged.
  */
-class CachedChecker {
+public class CachedChecker {
 
-    /**
-     * We cache purely to ignore repeated requests in a multi-file scan. Hence we'll treat the cached
-     * value as valid for time in ms.
-     */
-    private static final int CACHE_VALID_TIME = 60000;
-
-    private Checker checker;
-    private long timeStamp;
+    private InMemoryChecker checker;
+    private volatile long timeStamp;
     private Configuration config;
+    private String configFingerprint;
+    private String fingerprint;
+    private List<File> suppressionFiles;
+    private long[] suppressionFileStamps;
+    private int weight;
 
     /**
      * Create a new checker value.
      *
-     * @param checker the checker instance.
-     * @param config the checker configuration.
+     * @param checker           the checker instance.
+     * @param config            the checker configuration.
+     * @param configFingerprint the fingerprint of the configuration the checker was built from.
+     * @param suppressionFiles  the suppression files used by the checker.
      */
-    public CachedChecker(final Checker checker, final Configuration config) {
+    public CachedChecker(final InMemoryChecker checker,
+                         final Configuration config,
+                         final String configFingerprint,
+                         final List<File> suppressionFiles) {
         if (checker == null) {
             throw new IllegalArgumentException(
                     "Checker may not be null");
         }
+        if (configFingerprint == null) {
+            throw new IllegalArgumentException(
+                    "Fingerprint may not be null");
+        }
 
         this.checker = checker;
         this.timeStamp = System.currentTimeMillis();
         this.config = config;
+        this.configFingerprint = configFingerprint;
+
+        if (suppressionFiles != null) {
+            this.suppressionFiles = new ArrayList<File>(suppressionFiles);
+        } else {
+            this.suppressionFiles = Collections.emptyList();
+        }
+
+        final StringBuilder fingerprintSource = new StringBuilder(configFingerprint);
+        suppressionFileStamps = new long[this.suppressionFiles.size()];
+        for (int i = 0; i < this.suppressionFiles.size(); ++i) {
+            final File suppressionFile = this.suppressionFiles.get(i);
+            suppressionFileStamps[i] = stampOf(suppressionFile);
+            fingerprintSource.append('\n').append(suppressionFile.getAbsolutePath())
+                    .append(':').append(suppressionFileStamps[i]);
+        }
+        this.fingerprint = AuditResultCache.fingerprint(fingerprintSource.toString());
+
+        this.weight = weightOf(config);
+    }
+
+    /**
+     * Estimate the memory used by a checker, as the number of modules configured.
+     *
+     * @param configuration the configuration.
+     * @return the number of modules in the configuration, including itself.
+     */
+    private static int weightOf(final Configuration configuration) {
+        if (configuration == null) {
+            return 1;
+        }
+
+        int configurationWeight = 1;
+        for (final Configuration child : configuration.getChildren()) {
+            configurationWeight += weightOf(child);
+        }
+        return configurationWeight;
+    }
+
+    private static long stampOf(final File file) {
+        return file.lastModified() * 31 + file.length();
     }
 
     /**
@@ -40,7 +96,7 @@ class CachedChecker {
      *
      * @return the checker.
      */
-    public Checker getChecker() {
+    public InMemoryChecker getChecker() {
         this.timeStamp = System.currentTimeMillis();
         return checker;
     }
@@ -55,15 +111,50 @@ class CachedChecker {
     }
 
     /**
-     * Get the timestamp of the config file.
+     * Get the fingerprint of the configuration and suppression files the checker was built from.
+     * <p/>
+     * Checkers with the same fingerprint will report the same results for the same file.
+     *
+     * @return the fingerprint.
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Get the relative weight of the checker, an estimate of the memory it uses.
+     *
+     * @return the weight of the checker.
+     */
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * Get the time the checker was last used.
      *
-     * @return the timestamp of the config file.
+     * @return the time the checker was last used.
      */
     public long getTimeStamp() {
         return timeStamp;
     }
 
-    public boolean isValid() {
-        return (getTimeStamp() + CACHE_VALID_TIME) >= System.currentTimeMillis();
+    /**
+     * Is this checker still valid for the current configuration?
+     *
+     * @param currentConfigFingerprint the fingerprint of the configuration as it is now.
+     * @return true if the configuration and the suppression files used are unchanged.
+     */
+    public boolean isValid(final String currentConfigFingerprint) {
+        if (!configFingerprint.equals(currentConfigFingerprint)) {
+            return false;
+        }
+
+        for (int i = 0; i < suppressionFiles.size(); ++i) {
+            if (stampOf(suppressionFiles.get(i)) != suppressionFileStamps[i]) {
+                return false;
+            }
+        }
+        return true;
     }
 }
@@ -0,0 +1,36 @@
+package org.infernus.idea.checkstyle.checker;
+
+import com.puppycrawl.tools.checkstyle.api.AuditEvent;
+import com.puppycrawl.tools.checkstyle.api.AutomaticBean;
+import com.puppycrawl.tools.checkstyle.api.CheckstyleException;
+import com.puppycrawl.tools.checkstyle.api.Filter;
+import com.puppycrawl.tools.checkstyle.api.FilterSet;
+
+import java.io.File;
+
+/**
+ * A replacement for CheckStyle's <code>SuppressionFilter</code> which takes the parsed
+ * suppressions from the {@link SuppressionFileRegistry}, rather than parsing the file
+ * for each checker.
+ */
+public class CachedSuppressionFilter extends AutomaticBean implements Filter {
+
+    private FilterSet filters = new FilterSet();
+
+    /**
+     * Set the suppression file. Called by CheckStyle when the filter is configured.
+     *
+     * @param fileName the absolute path of the suppression file.
+     * @throws CheckstyleException if the file cannot be parsed.
+     */
+    public void setFile(final String fileName) throws CheckstyleException {
+        filters = SuppressionFileRegistry.getInstance().getSuppressions(new File(fileName));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean accept(final AuditEvent event) {
+        return filters.accept(event);
+    }
+}
@@ -2,17 +2,20 @@ package org.infernus.idea.checkstyle.checker;
 
 import com.intellij.codeInspection.ProblemDescriptor;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiFile;
 import org.apache.log4j.Logger;
 import org.infernus.idea.checkstyle.CheckStylePlugin;
 import org.infernus.idea.checkstyle.exception.CheckStylePluginException;
+import org.infernus.idea.checkstyle.toolwindow.FileResults;
 import org.jetbrains.annotations.NonNls;
 
 import javax.swing.SwingUtilities;
 import java.lang.reflect.InvocationTargetException;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 public class CheckFilesThread extends AbstractCheckerThread {
 
@@ -22,20 +25,109 @@ public class CheckFilesThread extends AbstractCheckerThread {
     @NonNls
     private static final Logger LOG = Logger.getLogger(CheckFilesThread.class);
 
+    /**
+     * Results that have yet to be added to the tool window.
+     */
+    private final List<FileResults> pendingResults = new ArrayList<FileResults>();
+
+    /**
+     * Is a task queued on the event thread to display the pending results?
+     */
+    private boolean pendingResultsQueued;
+
+    /**
+     * The generation of this scan, used to discard results once a later scan has started.
+     */
+    private final int generation;
+
     /**
      * Create a thread to check the given files.
      *
      * @param checkStylePlugin CheckStylePlugin.
      * @param virtualFiles     the files to check.
+     * @param generation       the generation of the scan.
      */
     public CheckFilesThread(final CheckStylePlugin checkStylePlugin,
-                            final List<VirtualFile> virtualFiles) {
+                            final List<VirtualFile> virtualFiles,
+                            final int generation) {
         super(checkStylePlugin, virtualFiles);
-        this.setFileResults(new HashMap<PsiFile, List<ProblemDescriptor>>());
+
+        this.generation = generation;
     }
 
+    /**
+     * Should the results of this scan still be displayed?
+     *
+     * @return true if the scan has not been stopped or superseded by a later scan.
+     */
+    private boolean isDisplayable() {
+        return isRunning() && getPlugin().isCurrentScan(generation);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The scanner takes a read action for each file it reads, rather than running in one,
+     * so write actions are not held off for the length of a shard.
+     */
     public void runFileScanner(final FileScanner fileScanner) throws InterruptedException, InvocationTargetException {
-        ApplicationManager.getApplication().runReadAction(fileScanner);
+        fileScanner.run();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Results are batched until the event thread is free to display them, so a fast scan
+     * does not flood the event queue. They are copied first, so the PSI is not retained.
+     * Batches that reach the event thread after the scan is stopped or superseded are dropped.
+     */
+    @Override
+    protected void shardScanned(final Map<PsiFile, List<ProblemDescriptor>> shardResults) {
+        if (shardResults.isEmpty() || !isDisplayable()) {
+            return;
+        }
+
+        final List<FileResults> copiedResults = ApplicationManager.getApplication().runReadAction(
+                new Computable<List<FileResults>>() {
+                    public List<FileResults> compute() {
+                        return FileResults.copyOf(shardResults);
+                    }
+                });
+
+        synchronized (pendingResults) {
+            pendingResults.addAll(copiedResults);
+            if (pendingResultsQueued) {
+                return;
+            }
+            pendingResultsQueued = true;
+        }
+
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                displayPendingResults();
+            }
+        });
+    }
+
+    /**
+     * Add any pending results to the tool window. This must be called on the event thread.
+     */
+    private void displayPendingResults() {
+        final List<FileResults> resultsToDisplay;
+        synchronized (pendingResults) {
+            resultsToDisplay = new ArrayList<FileResults>(pendingResults);
+            pendingResults.clear();
+            pendingResultsQueued = false;
+        }
+
+        if (!isDisplayable()) {
+            LOG.debug("Discarding results of a stopped or superseded scan");
+            return;
+        }
+
+        if (!resultsToDisplay.isEmpty()) {
+            getPlugin().getToolWindowPanel().displayPartialResults(resultsToDisplay);
+        }
     }
 
     /**
@@ -45,9 +137,14 @@ public class CheckFilesThread extends AbstractCheckerThread {
         setRunning(true);
 
         try {
+            collectFiles();
+
             // set progress bar
             SwingUtilities.invokeLater(new Runnable() {
                 public void run() {
+                    if (!isDisplayable()) {
+                        return;
+                    }
                     getPlugin().getToolWindowPanel().setProgressBarMax(getFiles().size());
                     getPlugin().getToolWindowPanel().displayInProgress();
                 }
@@ -58,7 +155,15 @@ public class CheckFilesThread extends AbstractCheckerThread {
             // invoke Swing fun in Swing thread.
             SwingUtilities.invokeLater(new Runnable() {
                 public void run() {
-                    getPlugin().getToolWindowPanel().displayResults(getFileResults());
+                    if (!getPlugin().isCurrentScan(generation)) {
+                        // a later scan now owns the tool window
+                        getPlugin().setThreadComplete(CheckFilesThread.this);
+                        return;
+                    }
+
+                    // results have been displayed as the scan progressed
+                    displayPendingResults();
+                    getPlugin().getToolWindowPanel().displayResultsComplete();
                     getPlugin().getToolWindowPanel().expandTree();
                     getPlugin().getToolWindowPanel().clearProgressBar();
                     getPlugin().getToolWindowPanel().setProgressText(null);
@@ -77,6 +182,11 @@ public class CheckFilesThread extends AbstractCheckerThread {
 
                 SwingUtilities.invokeLater(new Runnable() {
                     public void run() {
+                        if (!getPlugin().isCurrentScan(generation)) {
+                            getPlugin().setThreadComplete(CheckFilesThread.this);
+                            return;
+                        }
+
                         getPlugin().getToolWindowPanel().displayErrorResult(processedError);
                         getPlugin().getToolWindowPanel().clearProgressBar();
                         getPlugin().getToolWindowPanel().setProgressText(null);
@@ -13,10 +13,12 @@ import com.puppycrawl.tools.checkstyle.api.AuditListener;
 import org.apache.log4j.Logger;
 import org.infernus.idea.checkstyle.checks.Check;
 import org.infernus.idea.checkstyle.util.ExtendedProblemDescriptor;
+import org.infernus.idea.checkstyle.util.MessageTable;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -77,13 +79,38 @@ public class CheckStyleAuditListener implements AuditListener {
      * {@inheritDoc}
      */
     public void auditFinished(final AuditEvent auditEvent) {
-        final ProcessResultsThread findThread = new ProcessResultsThread();
+        final Map<PsiFile, List<AuditEvent>> eventsByFile = new LinkedHashMap<PsiFile, List<AuditEvent>>();
+        synchronized (errors) {
+            for (final AuditEvent event : errors) {
+                final PsiFile psiFile = fileNamesToPsiFiles.get(event.getFileName());
+                if (psiFile == null) {
+                    if (LOG.isInfoEnabled()) {
+                        LOG.info("Could not find mapping for file: " + event.getFileName()
+                                + " in " + fileNamesToPsiFiles);
+                    }
+                    continue;
+                }
+
+                List<AuditEvent> eventsForFile = eventsByFile.get(psiFile);
+                if (eventsForFile == null) {
+                    eventsForFile = new ArrayList<AuditEvent>();
+                    eventsByFile.put(psiFile, eventsForFile);
+                }
+                eventsForFile.add(event);
+            }
+        }
 
+        // each file is processed in a read action of its own, so a large
+        // audit does not hold off write actions until it is complete.
         final Application application = ApplicationManager.getApplication();
-        if (application.isDispatchThread()) {
-            findThread.run();
-        } else {
-            application.runReadAction(findThread);
+        for (final Map.Entry<PsiFile, List<AuditEvent>> fileEvents : eventsByFile.entrySet()) {
+            final ProcessResultsThread findThread = new ProcessResultsThread(
+                    fileEvents.getKey(), fileEvents.getValue());
+            if (application.isDispatchThread()) {
+                findThread.run();
+            } else {
+                application.runReadAction(findThread);
+            }
         }
     }
 
@@ -139,6 +166,17 @@ public class CheckStyleAuditListener implements AuditListener {
         return Collections.unmodifiableMap(problems);
     }
 
+    /**
+     * Get the events raised by CheckStyle during the audit.
+     *
+     * @return the events raised during the audit.
+     */
+    public List<AuditEvent> getAuditEvents() {
+        synchronized (errors) {
+            return new ArrayList<AuditEvent>(errors);
+        }
+    }
+
     private void addProblem(final PsiFile psiFile, final ProblemDescriptor problemDescriptor) {
         List<ProblemDescriptor> problemsForFile = problems.get(psiFile);
         if (problemsForFile == null) {
@@ -150,47 +188,39 @@ public class CheckStyleAuditListener implements AuditListener {
     }
 
     /**
-     * Runnable to process an audit event.
+     * Runnable to process the audit events for a file.
      */
     private class ProcessResultsThread implements Runnable {
 
+        private final PsiFile psiFile;
+        private final List<AuditEvent> events;
+
+        public ProcessResultsThread(final PsiFile psiFile,
+                                    final List<AuditEvent> events) {
+            this.psiFile = psiFile;
+            this.events = events;
+        }
+
         /**
          * {@inheritDoc}
          */
         public void run() {
-            final Map<PsiFile, List<Integer>> lineLengthCachesByFile = new HashMap<PsiFile, List<Integer>>();
-
-            synchronized (errors) {
-                for (final AuditEvent event : errors) {
-                    final PsiFile psiFile = fileNamesToPsiFiles.get(event.getFileName());
-                    if (psiFile == null) {
-                        if (LOG.isInfoEnabled()) {
-                            LOG.info("Could not find mapping for file: " + event.getFileName()
-                                    + " in " + fileNamesToPsiFiles);
-                        }
-                        return;
-                    }
-
-                    List<Integer> lineLengthCache = lineLengthCachesByFile.get(psiFile);
-                    if (lineLengthCache == null) {
-                        // we cache the offset of each line as it is created, so as to
-                        // avoid retreating ground we've already covered.
-                        lineLengthCache = new ArrayList<Integer>();
-                        lineLengthCache.add(0); // line 1 is offset 0
-
-                        lineLengthCachesByFile.put(psiFile, lineLengthCache);
-                    }
+            if (!psiFile.isValid()) {
+                LOG.debug("Skipping results for invalidated file " + psiFile.getName());
+                return;
+            }
 
-                    processEvent(psiFile, lineLengthCache, event);
-                }
+            // we index the start of each line once per file, rather than
+            // walking the text for each event.
+            final LineIndex lineIndex = new LineIndex(psiFile.textToCharArray());
+            for (final AuditEvent event : events) {
+                processEvent(psiFile, lineIndex, event);
             }
         }
 
         private void processEvent(final PsiFile psiFile,
-                                  final List<Integer> lineLengthCache,
+                                  final LineIndex lineIndex,
                                   final AuditEvent event) {
-            final char[] text = psiFile.textToCharArray();
-
             // check for package HTML siblings, as our scan can't find these
             // if we're using a temporary file
 
@@ -202,49 +232,19 @@ public class CheckStyleAuditListener implements AuditListener {
                 }
             }
 
-            int offset;
+            final int offset;
             boolean endOfLine = false;
 
-            // start of file
             if (event.getLine() == 0) { // start of file errors
                 offset = event.getColumn();
 
-                // line offset is cached...
-            } else if (event.getLine() <= lineLengthCache.size()) {
-                offset = lineLengthCache.get(event.getLine() - 1) + event.getColumn();
-
-                // further search required
             } else {
-                // start from end of cached data
-                offset = lineLengthCache.get(lineLengthCache.size() - 1);
-                int line = lineLengthCache.size();
-
-                int column = 0;
-                for (int i = offset; i < text.length; ++i) {
-                    final char character = text[i];
-
-                    // for linefeeds we need to handle CR, LF and CRLF,
-                    // hence we accept either and only trigger a new
-                    // line on the LF of CRLF.
-                    final char nextChar = (i + 1) < text.length ? text[i + 1] : '\0';
-                    if (character == '\n' || character == '\r' && nextChar != '\n') {
-                        ++line;
-                        ++offset;
-                        lineLengthCache.add(offset);
-                        column = 0;
-                    } else {
-                        ++column;
-                        ++offset;
-                    }
+                offset = lineIndex.offsetOf(event.getLine(), event.getColumn());
 
-                    // need to go to end of line though
-                    if (event.getLine() == line && event.getColumn() == column) {
-                        if (column == 0 && Character.isWhitespace(nextChar)) {
-                            // move line errors to after EOL
-                            endOfLine = true;
-                        }
-                        break;
-                    }
+                if (event.getColumn() == 0 && event.getLine() > 1
+                        && lineIndex.isWhitespaceAt(offset)) {
+                    // move line errors to after EOL
+                    endOfLine = true;
                 }
             }
 
@@ -255,9 +255,9 @@ public class CheckStyleAuditListener implements AuditListener {
                 LOG.warn("Couldn't find victim for error: " + event.getFileName() + "("
                         + event.getLine() + ":" + event.getColumn() + ") " + event.getMessage());
             } else {
-                final String message = event.getLocalizedMessage() != null
+                final String message = MessageTable.intern(event.getLocalizedMessage() != null
                         ? event.getLocalizedMessage().getMessage()
-                        : event.getMessage();
+                        : event.getMessage());
                 final ProblemHighlightType problemType
                         = ProblemHighlightType.GENERIC_ERROR_OR_WARNING;
                 final ProblemDescriptor problem = manager.createProblemDescriptor(
@@ -275,5 +275,4 @@ public class CheckStyleAuditListener implements AuditListener {
             }
         }
     }
-
 }
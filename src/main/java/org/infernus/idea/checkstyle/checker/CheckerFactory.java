@@ -1,12 +1,7 @@
 package org.infernus.idea.checkstyle.checker;
 
 import com.intellij.openapi.module.Module;
-import com.intellij.openapi.roots.ContentEntry;
-import com.intellij.openapi.roots.ModuleRootManager;
-import com.puppycrawl.tools.checkstyle.Checker;
-import com.puppycrawl.tools.checkstyle.ConfigurationLoader;
 import com.puppycrawl.tools.checkstyle.DefaultConfiguration;
-import com.puppycrawl.tools.checkstyle.PropertyResolver;
 import com.puppycrawl.tools.checkstyle.api.CheckstyleException;
 import com.puppycrawl.tools.checkstyle.api.Configuration;
 import org.apache.log4j.Logger;
@@ -15,12 +10,30 @@ import org.infernus.idea.checkstyle.util.IDEAUtilities;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A configuration factory and resolver for CheckStyle.
@@ -42,15 +55,103 @@ public class CheckerFactory {
     private static final CheckerFactory INSTANCE = new CheckerFactory();
 
     /**
-     * Cached checkers for the factory.
-     * <p/>
+     * The maximum number of checkers to hold for any one configuration and class loader. This
+     * allows a checker for each scan thread, plus one that is kept for inspections.
+     */
+    private static final int MAX_CHECKERS_PER_POOL = Runtime.getRuntime().availableProcessors() + 1;
+
+    /**
+     * The maximum number of pools to hold, each for a configuration and module class loader.
+     */
+    private static final int MAX_POOLS = 32;
+
+    /**
+     * The maximum total weight of the checkers held, where the weight of a checker is
+     * the number of modules in its configuration.
+     */
+    private static final int MAX_WEIGHT = 5000;
+
+    /**
+     * The time after which an idle checker is destroyed, in ms.
+     */
+    private static final long MAX_IDLE_TIME = 10 * 60 * 1000;
+
+    /**
+     * The interval between sweeps for idle checkers, in ms.
+     */
+    private static final long SWEEP_INTERVAL = 60 * 1000;
+
+    /**
+     * Pooled checkers for the factory, keyed on the configuration and module class loader.
+     * Module class loaders are shared by modules with the same classpath, and so are their checkers.
+     */
+    private final Map<PoolKey, CheckerPool> pools = new LinkedHashMap<PoolKey, CheckerPool>(16, 0.75f, true) {
+        private static final long serialVersionUID = 3620387409216735216L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<PoolKey, CheckerPool> eldest) {
+            if (size() > MAX_POOLS) {
+                destroyPool(eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * Loads configurations and builds checkers. Builds for different configurations run in parallel.
+     */
+    private final ExecutorService configurationLoader = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "CheckStyle-IDEA Configuration Loader " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Reads of configurations in progress, shared by concurrent callers.
+     */
+    private final Map<ConfigurationLocation, Future<ResolvedConfiguration>> pendingReads
+            = new HashMap<ConfigurationLocation, Future<ResolvedConfiguration>>();
+
+    /**
+     * The last configuration read from each location, holding its parsed tree.
+     * Guarded by the lock on the pending reads.
+     */
+    private final Map<ConfigurationLocation, ResolvedConfiguration> resolvedConfigurations
+            = new HashMap<ConfigurationLocation, ResolvedConfiguration>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong buildTime = new AtomicLong();
+
+    /**
+     * Builds checkers in the background ahead of their first use, and sweeps for idle checkers.
      */
-    private final Map<ConfigurationLocation, CachedChecker> cache = new HashMap<ConfigurationLocation, CachedChecker>();
+    private final ScheduledExecutorService maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "CheckStyle-IDEA Checker Maintenance " + threadCount.incrementAndGet());
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 
     /**
      * Create a new factory.
      */
     protected CheckerFactory() {
+        maintenanceExecutor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                sweep();
+            }
+        }, SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -63,7 +164,10 @@ public class CheckerFactory {
     }
 
     /**
-     * Get a checker for a given configuration.
+     * Borrow a checker for a given configuration, for an inspection.
+     * <p/>
+     * The checker is for the sole use of the caller until it is handed back via
+     * {@link #returnChecker(ConfigurationLocation, ClassLoader, CachedChecker)}, which must always be done.
      *
      * @param location    the location of the CheckStyle file.
      * @param module      the current module.
@@ -72,84 +176,329 @@ public class CheckerFactory {
      * @return the checker for the module or null if it cannot be created.
      * @throws CheckstyleException if CheckStyle initialisation fails.
      */
-    public Checker getChecker(final ConfigurationLocation location,
-                              final Module module,
-                              final ClassLoader classLoader)
+    public CachedChecker borrowChecker(final ConfigurationLocation location,
+                                       final Module module,
+                                       final ClassLoader classLoader)
+            throws CheckstyleException {
+        return borrowChecker(location, module, classLoader, false);
+    }
+
+    /**
+     * Borrow a checker for a given configuration, for a scan. Scans may not borrow every checker
+     * for a configuration, so inspections are not held up by a scan in progress.
+     * <p/>
+     * The checker is for the sole use of the caller until it is handed back via
+     * {@link #returnChecker(ConfigurationLocation, ClassLoader, CachedChecker)}, which must always be done.
+     *
+     * @param location    the location of the CheckStyle file.
+     * @param module      the current module.
+     * @param classLoader class loader for CheckStyle use, or null to use
+     *                    the default.
+     * @return the checker for the module or null if it cannot be created.
+     * @throws CheckstyleException if CheckStyle initialisation fails.
+     */
+    public CachedChecker borrowScanChecker(final ConfigurationLocation location,
+                                           final Module module,
+                                           final ClassLoader classLoader)
+            throws CheckstyleException {
+        return borrowChecker(location, module, classLoader, true);
+    }
+
+    private CachedChecker borrowChecker(final ConfigurationLocation location,
+                                        final Module module,
+                                        final ClassLoader classLoader,
+                                        final boolean forScan)
             throws CheckstyleException {
         if (location == null) {
             throw new IllegalArgumentException("Location is required");
         }
 
-        synchronized (cache) {
-            if (cache.containsKey(location)) {
-                CachedChecker cachedChecker = cache.get(location);
-                if (cachedChecker != null && cachedChecker.isValid()) {
-                    return cachedChecker.getChecker();
-                } else {
-                    if (cachedChecker != null) {
-                        cachedChecker.getChecker().destroy();
+        final CheckerPool pool = getPool(location, classLoader);
+        if (pool.isValidationDue()) {
+            validatePool(location, pool);
+        }
+
+        try {
+            if (forScan) {
+                return pool.borrowForScan(module, classLoader);
+            }
+            return pool.borrow(module, classLoader);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CheckstyleException("Interrupted while waiting for a checker for "
+                    + location.getLocation());
+        }
+    }
+
+    /**
+     * Build a checker for a given configuration in the background, unless one has
+     * already been built, so that it is ready for the first inspection.
+     *
+     * @param location    the location of the CheckStyle file.
+     * @param module      the current module. May be null.
+     * @param classLoader class loader for CheckStyle use, or null to use
+     *                    the default.
+     * @param onComplete  run once the checker has been built, or could not be. May be null.
+     */
+    public void prewarmChecker(final ConfigurationLocation location,
+                               final Module module,
+                               final ClassLoader classLoader,
+                               final Runnable onComplete) {
+        if (location == null) {
+            throw new IllegalArgumentException("Location is required");
+        }
+
+        try {
+            maintenanceExecutor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        getPool(location, classLoader).prewarm(module, classLoader);
+
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+
+                    } catch (Exception e) {
+                        // the error will be reported when the checker is next borrowed
+                        LOG.debug("Checker could not be prewarmed for " + location.getLocation(), e);
+
+                    } finally {
+                        if (onComplete != null) {
+                            onComplete.run();
+                        }
                     }
-                    cache.remove(location);
                 }
+            });
+
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Prewarming has been shut down");
+            if (onComplete != null) {
+                onComplete.run();
             }
+        }
+    }
 
-            final ListPropertyResolver propertyResolver = new ListPropertyResolver(location.getProperties());
-            final CachedChecker checker = createChecker(location, module, propertyResolver, classLoader);
-            if (checker != null) {
-                cache.put(location, checker);
-                return checker.getChecker();
+    private CheckerPool getPool(final ConfigurationLocation location,
+                                final ClassLoader classLoader) {
+        final PoolKey poolKey = new PoolKey(location, classLoader);
+        synchronized (pools) {
+            CheckerPool pool = pools.get(poolKey);
+            if (pool == null) {
+                enforceWeightLimit();
+
+                pool = new CheckerPool(this, location, MAX_CHECKERS_PER_POOL);
+                pools.put(poolKey, pool);
             }
+            return pool;
+        }
+    }
+
+    /**
+     * Destroy checkers that have been idle for too long, drop empty pools, and destroy
+     * the least recently used pools if the checkers held exceed the weight limit.
+     */
+    void sweep() {
+        final long unusedSince = System.currentTimeMillis() - MAX_IDLE_TIME;
+
+        synchronized (pools) {
+            for (final Iterator<CheckerPool> i = pools.values().iterator(); i.hasNext();) {
+                final CheckerPool pool = i.next();
+                recordEvictions(pool.evictUnusedCheckers(unusedSince));
+                if (pool.isEmpty()) {
+                    // not destroyed, as the pool may be about to be borrowed from
+                    i.remove();
+                }
+            }
+
+            enforceWeightLimit();
+        }
 
-            return null;
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Checker cache: " + hitCount.get() + " hits, " + missCount.get() + " misses, "
+                    + evictionCount.get() + " evictions, " + buildTime.get() + "ms building checkers");
         }
     }
 
     /**
-     * Invalidate any cached checkers.
+     * Destroy the least recently used pools until the total weight is within the limit.
+     * Must be called while holding the lock on the pools.
      */
-    public void invalidateCache() {
-        synchronized (cache) {
-            cache.clear();
+    private void enforceWeightLimit() {
+        int totalWeight = 0;
+        for (final CheckerPool pool : pools.values()) {
+            totalWeight += pool.getWeight();
+        }
+
+        // pools are iterated from the least recently used
+        for (final Iterator<CheckerPool> i = pools.values().iterator(); i.hasNext()
+                && totalWeight > MAX_WEIGHT;) {
+            final CheckerPool pool = i.next();
+            totalWeight -= pool.getWeight();
+            destroyPool(pool);
+            i.remove();
         }
     }
 
+    private void destroyPool(final CheckerPool pool) {
+        recordEvictions(pool.getIdleCount());
+        pool.destroy();
+    }
+
+    void recordHit() {
+        hitCount.incrementAndGet();
+    }
+
+    void recordEvictions(final int checkerCount) {
+        evictionCount.addAndGet(checkerCount);
+    }
+
     /**
-     * Get the checker configuration for a given configuration.
+     * Get the number of times an idle checker was available when one was borrowed.
      *
-     * @param location the location of the CheckStyle file.
-     * @return a configuration.
+     * @return the number of hits.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Get the number of times a checker was built.
+     *
+     * @return the number of misses.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Get the number of idle checkers destroyed because they were stale, unused or
+     * exceeded the limits of the factory.
+     *
+     * @return the number of evictions.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Get the total time spent building checkers.
+     *
+     * @return the build time, in ms.
+     */
+    public long getBuildTime() {
+        return buildTime.get();
+    }
+
+    /**
+     * Return a borrowed checker.
+     *
+     * @param location    the location the checker was borrowed for.
+     * @param classLoader the class loader the checker was borrowed for.
+     * @param checker     the checker. May be null.
      */
-    public Configuration getConfig(final ConfigurationLocation location) {
+    public void returnChecker(final ConfigurationLocation location,
+                              final ClassLoader classLoader,
+                              final CachedChecker checker) {
         if (location == null) {
             throw new IllegalArgumentException("Location is required");
         }
+        if (checker == null) {
+            return;
+        }
 
-        synchronized (cache) {
-            if (cache.containsKey(location)) {
-                CachedChecker cachedChecker = cache.get(location);
-                if (cachedChecker != null && cachedChecker.isValid()) {
-                    return cachedChecker.getConfig();
-                }
+        final CheckerPool pool;
+        synchronized (pools) {
+            pool = pools.get(new PoolKey(location, classLoader));
+        }
+
+        if (pool != null && pool.owns(checker)) {
+            pool.release(checker);
+        } else {
+            // the pool has been invalidated since the checker was borrowed
+            checker.getChecker().destroy();
+        }
+    }
+
+    /**
+     * Invalidate any cached checkers.
+     */
+    public void invalidateCache() {
+        synchronized (pools) {
+            for (final CheckerPool pool : pools.values()) {
+                pool.destroy();
             }
+            pools.clear();
+        }
+
+        synchronized (pendingReads) {
+            resolvedConfigurations.clear();
         }
 
-        throw new IllegalArgumentException("Failed to find a configured checker.");
+        SuppressionFileRegistry.getInstance().invalidate();
     }
 
     /**
-     * Load the Checkstyle configuration in a separate thread.
+     * Check the configuration of a pool is unchanged, destroying any checkers built
+     * from an earlier version of it.
+     *
+     * @param location the location of the CheckStyle file.
+     * @param pool     the pool of checkers for the location.
+     */
+    private void validatePool(final ConfigurationLocation location,
+                              final CheckerPool pool) {
+        try {
+            pool.evictStaleCheckers(currentConfigFingerprintOf(location));
+
+        } catch (IOException e) {
+            // we'll keep using the existing checkers until the configuration can be read again
+            LOG.debug("Could not read configuration to validate checkers: " + location.getLocation(), e);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Create a new checker for a given configuration, bypassing the pools.
+     *
+     * @param location     the location of the CheckStyle file.
+     * @param module       the current module. May be null.
+     * @param classLoader  class loader for CheckStyle use, or null to use
+     *                     the default.
+     * @param reportErrors true to notify the user if the configuration cannot be found.
+     * @return the checker for the module or null if it cannot be created.
+     * @throws CheckstyleException if CheckStyle initialisation fails.
+     */
+    CachedChecker buildChecker(final ConfigurationLocation location,
+                               final Module module,
+                               final ClassLoader classLoader,
+                               final boolean reportErrors)
+            throws CheckstyleException {
+        missCount.incrementAndGet();
+
+        final long buildStart = System.currentTimeMillis();
+        try {
+            return createChecker(location, module, classLoader, reportErrors);
+
+        } finally {
+            buildTime.addAndGet(System.currentTimeMillis() - buildStart);
+        }
+    }
+
+    /**
+     * Load the Checkstyle configuration on the configuration loading executor.
      *
      * @param location           The location of the Checkstyle configuration file.
      * @param module             the current module.
-     * @param resolver           the resolver.
      * @param contextClassLoader the context class loader, or null for default.
+     * @param reportErrors       true to notify the user if the configuration cannot be found.
      * @return loaded Configuration object
      * @throws CheckstyleException If there was any error loading the configuration file.
      */
     private CachedChecker createChecker(final ConfigurationLocation location,
                                         final Module module,
-                                        final PropertyResolver resolver,
-                                        final ClassLoader contextClassLoader)
+                                        final ClassLoader contextClassLoader,
+                                        final boolean reportErrors)
             throws CheckstyleException {
 
         if (LOG.isDebugEnabled()) {
@@ -157,44 +506,126 @@ public class CheckerFactory {
 
             LOG.debug("Call to create new checker.");
 
-            logProperties(resolver);
+            logProperties(location.getProperties());
             logClassLoaders(contextClassLoader);
         }
 
-        final CheckerFactoryWorker worker = new CheckerFactoryWorker(
-                location, resolver, module, contextClassLoader);
+        final Future<CachedChecker> pendingChecker;
+        try {
+            pendingChecker = configurationLoader.submit(
+                    new CheckerBuilder(location, module, contextClassLoader));
 
-        // Begin reading the configuration
-        worker.start();
+        } catch (RejectedExecutionException e) {
+            throw new CheckstyleException("Configuration loading has been shut down");
+        }
 
-        // Wait for configuration thread to complete
-        while (worker.isAlive()) {
-            try {
-                worker.join();
-            } catch (InterruptedException e) {
-                // Just be silent for now
+        try {
+            return pendingChecker.get();
+
+        } catch (InterruptedException e) {
+            pendingChecker.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new CheckstyleException("Interrupted while loading configuration "
+                    + location.getLocation());
+
+        } catch (ExecutionException e) {
+            // Did the process of reading the configuration fail?
+            if (e.getCause() instanceof CheckstyleException) {
+                throw (CheckstyleException) e.getCause();
+
+            } else if (e.getCause() instanceof IOException) {
+                LOG.info("CheckStyle configuration could not be loaded: " + location.getLocation(),
+                        e.getCause());
+
+                if (reportErrors && module != null) {
+                    final MessageFormat notFoundFormat = new MessageFormat(
+                            IDEAUtilities.getResource("checkstyle.file-not-found", "Not found: {0}"));
+                    IDEAUtilities.showError(module.getProject(),
+                            notFoundFormat.format(new Object[]{location.getLocation()}));
+                }
+                return null;
             }
+
+            throw new CheckstyleException("Could not load configuration", e.getCause());
         }
+    }
 
-        // Did the process of reading the configuration fail?
-        if (worker.getResult() instanceof CheckstyleException) {
-            throw (CheckstyleException) worker.getResult();
+    /**
+     * Read a configuration. Concurrent reads of the same location share a single read,
+     * and if the configuration is unchanged since it was last read the previous
+     * configuration, and its parsed tree, is reused.
+     *
+     * @param location the location of the CheckStyle file.
+     * @return the pending configuration.
+     */
+    private Future<ResolvedConfiguration> readConfiguration(final ConfigurationLocation location) {
+        synchronized (pendingReads) {
+            final Future<ResolvedConfiguration> pendingRead = pendingReads.get(location);
+            if (pendingRead != null) {
+                return pendingRead;
+            }
+
+            final FutureTask<ResolvedConfiguration> read = new FutureTask<ResolvedConfiguration>(
+                    new Callable<ResolvedConfiguration>() {
+                public ResolvedConfiguration call() throws IOException {
+                    try {
+                        final ResolvedConfiguration resolvedConfiguration = ResolvedConfiguration.resolve(location);
 
-        } else if (worker.getResult() instanceof IOException) {
-            LOG.info("CheckStyle configuration could not be loaded: " + location.getLocation(),
-                    (IOException) worker.getResult());
+                        synchronized (pendingReads) {
+                            final ResolvedConfiguration previousConfiguration = resolvedConfigurations.get(location);
+                            if (resolvedConfiguration.isSameAs(previousConfiguration)) {
+                                return previousConfiguration;
+                            }
+
+                            resolvedConfigurations.put(location, resolvedConfiguration);
+                            return resolvedConfiguration;
+                        }
 
-            final MessageFormat notFoundFormat = new MessageFormat(
-                    IDEAUtilities.getResource("checkstyle.file-not-found", "Not found: {0}"));
-            IDEAUtilities.showError(module.getProject(), notFoundFormat.format(new Object[]{location.getLocation()}));
-            return null;
+                    } finally {
+                        synchronized (pendingReads) {
+                            pendingReads.remove(location);
+                        }
+                    }
+                }
+            });
+            pendingReads.put(location, read);
+            try {
+                configurationLoader.execute(read);
 
-        } else if (worker.getResult() instanceof Throwable) {
-            throw new CheckstyleException("Could not load configuration",
-                    (Throwable) worker.getResult());
+            } catch (RejectedExecutionException e) {
+                pendingReads.remove(location);
+                throw e;
+            }
+            return read;
         }
+    }
+
+    /**
+     * Wait for a configuration to be read. The read is shared with other callers, so
+     * is not cancelled if this caller is interrupted.
+     *
+     * @param location the location of the CheckStyle file.
+     * @return the configuration.
+     * @throws IOException          if the configuration cannot be read.
+     * @throws InterruptedException if interrupted while waiting for the configuration.
+     */
+    private ResolvedConfiguration awaitConfiguration(final ConfigurationLocation location)
+            throws IOException, InterruptedException {
+        try {
+            return readConfiguration(location).get();
+
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
 
-        return (CachedChecker) worker.getResult();
+            final IOException readFailure = new IOException("Could not read " + location.getLocation());
+            readFailure.initCause(e.getCause());
+            throw readFailure;
+
+        } catch (RejectedExecutionException e) {
+            throw new IOException("Configuration loading has been shut down");
+        }
     }
 
     private void logClassLoaders(final ClassLoader contextClassLoader) {
@@ -220,167 +651,213 @@ public class CheckerFactory {
         }
     }
 
-    private void logProperties(final PropertyResolver resolver) {
-        // Log properties if known
-        if (resolver != null && resolver instanceof ListPropertyResolver) {
-            final ListPropertyResolver listResolver = (ListPropertyResolver)
-                    resolver;
-            final Map<String, String> propertiesToValues
-                    = listResolver.getPropertyNamesToValues();
-            for (final String propertyName : propertiesToValues.keySet()) {
-                final String propertyValue
-                        = propertiesToValues.get(propertyName);
-                LOG.debug("- Property: " + propertyName + "="
-                        + propertyValue);
+    private void logProperties(final Map<String, String> properties) {
+        for (final String propertyName : properties.keySet()) {
+            LOG.debug("- Property: " + propertyName + "="
+                    + properties.get(propertyName));
+        }
+    }
+
+    /**
+     * Create a fingerprint of a configuration, covering its content and the properties
+     * it is resolved with.
+     *
+     * @param configurationBytes the content of the configuration.
+     * @param properties         the properties of the configuration. May be null.
+     * @return the fingerprint.
+     * @throws IOException if the properties cannot be encoded.
+     */
+    static String configFingerprintOf(final byte[] configurationBytes,
+                                      final Map<String, String> properties)
+            throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+
+        digest.update(configurationBytes);
+
+        if (properties != null) {
+            final Map<String, String> sortedProperties = new TreeMap<String, String>(properties);
+            for (final String propertyName : sortedProperties.keySet()) {
+                digest.update((propertyName + "=" + sortedProperties.get(propertyName) + "\n").getBytes("UTF-8"));
+            }
+        }
+
+        return AuditResultCache.toHex(digest.digest());
+    }
+
+    /**
+     * Read the current configuration of a location and create a fingerprint of it.
+     *
+     * @param location the location.
+     * @return the fingerprint.
+     * @throws IOException          if the configuration cannot be read.
+     * @throws InterruptedException if interrupted while waiting for the configuration.
+     */
+    private String currentConfigFingerprintOf(final ConfigurationLocation location)
+            throws IOException, InterruptedException {
+        return awaitConfiguration(location).getFingerprint();
+    }
+
+    /**
+     * The key of a pool. Class loaders are compared by identity, as a checker holds
+     * on to the class loader it was built with.
+     */
+    private static final class PoolKey {
+        private final ConfigurationLocation location;
+        private final ClassLoader classLoader;
+
+        private PoolKey(final ConfigurationLocation location,
+                        final ClassLoader classLoader) {
+            this.location = location;
+            this.classLoader = classLoader;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
             }
+
+            final PoolKey that = (PoolKey) o;
+            return location.equals(that.location) && classLoader == that.classLoader;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return 31 * location.hashCode() + System.identityHashCode(classLoader);
         }
     }
 
-    private class CheckerFactoryWorker extends Thread {
+    /**
+     * Builds a checker on the configuration loading executor, with the module class loader
+     * as the context class loader.
+     */
+    private class CheckerBuilder implements Callable<CachedChecker> {
         private static final String SUPPRESSION_FILTER_ELEMENT = "SuppressionFilter";
         private static final String FILE_ATTRIBUTE = "file";
-
-        private final Object[] threadReturn = new Object[1];
+        private final String cachedSuppressionFilterElement = CachedSuppressionFilter.class.getName();
 
         private final ConfigurationLocation location;
-        private final PropertyResolver resolver;
         private final Module module;
+        private final ClassLoader contextClassLoader;
 
-        public CheckerFactoryWorker(final ConfigurationLocation location,
-                                    final PropertyResolver resolver,
-                                    final Module module,
-                                    final ClassLoader contextClassLoader) {
+        public CheckerBuilder(final ConfigurationLocation location,
+                              final Module module,
+                              final ClassLoader contextClassLoader) {
             this.location = location;
-            this.resolver = resolver;
             this.module = module;
 
-
             if (contextClassLoader != null) {
-                setContextClassLoader(contextClassLoader);
+                this.contextClassLoader = contextClassLoader;
             } else {
-                final ClassLoader loader = CheckerFactory.this.getClass().getClassLoader();
-                setContextClassLoader(loader);
+                this.contextClassLoader = CheckerFactory.this.getClass().getClassLoader();
             }
         }
 
-        public Object getResult() {
-            return threadReturn[0];
+        public CachedChecker call() throws Exception {
+            final Thread currentThread = Thread.currentThread();
+            final ClassLoader previousContextClassLoader = currentThread.getContextClassLoader();
+            currentThread.setContextClassLoader(contextClassLoader);
+            try {
+                return build();
+
+            } finally {
+                currentThread.setContextClassLoader(previousContextClassLoader);
+            }
         }
 
-        public void run() {
-            try {
-                final Checker checker = new Checker();
-                final Configuration config;
+        private CachedChecker build() throws Exception {
+            final InMemoryChecker checker = new InMemoryChecker();
+            final Configuration config;
+            final String fingerprint;
+            final List<File> suppressionFiles;
 
-                if (location != null) {
-                    InputStream configurationInputStream = null;
+            if (location != null) {
+                final ResolvedConfiguration resolvedConfiguration = awaitConfiguration(location);
+                fingerprint = resolvedConfiguration.getFingerprint();
+                config = resolvedConfiguration.copyConfiguration();
 
-                    try {
-                        configurationInputStream = location.resolve();
-                        config = ConfigurationLoader.loadConfiguration(
-                                configurationInputStream, resolver, true);
+                replaceSuppressionFilterPath(config);
+                suppressionFiles = getSuppressionFiles(config);
 
-                        replaceSuppressionFilterPath(config);
+                checker.setModuleClassLoader(contextClassLoader);
+                checker.configure(config);
 
-                        checker.setModuleClassLoader(Thread.currentThread().getContextClassLoader());
-                        checker.configure(config);
+            } else {
+                config = new DefaultConfiguration("checker");
+                fingerprint = configFingerprintOf(new byte[0], null);
+                suppressionFiles = null;
+            }
 
-                    } finally {
-                        if (configurationInputStream != null) {
-                            try {
-                                configurationInputStream.close();
-                            } catch (IOException e) {
-                                // ignored
-                            }
-                        }
-                    }
-                } else {
-                    config = new DefaultConfiguration("checker");
-                }
-                threadReturn[0] = new CachedChecker(checker, config);
+            return new CachedChecker(checker, config, fingerprint, suppressionFiles);
+        }
 
-            } catch (Exception e) {
-                threadReturn[0] = e;
+        /**
+         * Find the suppression files used by the configuration.
+         *
+         * @param config the current configuration, after suppression filters have been replaced.
+         * @return the suppression files.
+         * @throws CheckstyleException if the configuration cannot be read.
+         */
+        private List<File> getSuppressionFiles(final Configuration config) throws CheckstyleException {
+            final List<File> suppressionFiles = new ArrayList<File>();
+            for (final Configuration configurationElement : config.getChildren()) {
+                if (cachedSuppressionFilterElement.equals(configurationElement.getName())) {
+                    suppressionFiles.add(new File(configurationElement.getAttribute(FILE_ATTRIBUTE)));
+                }
             }
+            return suppressionFiles;
         }
 
         /**
-         * Scans the configuration for suppression filters and
-         * replaces relative paths with absolute ones.
+         * Scans the configuration for suppression filters and replaces them with filters
+         * that use the suppression file registry, with absolute paths.
          *
          * @param config the current configuration.
          * @throws CheckstyleException if configuration fails.
          */
         private void replaceSuppressionFilterPath(final Configuration config)
                 throws CheckstyleException {
+            final SuppressionFileRegistry suppressionFileRegistry = SuppressionFileRegistry.getInstance();
 
             for (final Configuration configurationElement : config.getChildren()) {
-                if (!SUPPRESSION_FILTER_ELEMENT.equals(configurationElement.getName())) {
+                if (!SUPPRESSION_FILTER_ELEMENT.equals(configurationElement.getName())
+                        || !(config instanceof DefaultConfiguration)) {
                     continue;
                 }
 
                 final String fileName = configurationElement.getAttribute(FILE_ATTRIBUTE);
-                if (fileName != null && !new File(fileName).exists()
-                        && configurationElement instanceof DefaultConfiguration) {
-                    final File suppressionFile = getSuppressionFile(fileName);
-                    if (suppressionFile != null) {
-                        ((DefaultConfiguration) configurationElement).addAttribute(
-                                FILE_ATTRIBUTE, suppressionFile.getAbsolutePath());
-                    } else {
-                        ((DefaultConfiguration) config).removeChild(configurationElement);
-
-                        if (module != null) {
-                            IDEAUtilities.showWarning(module.getProject(),
-                                    IDEAUtilities.getResource("checkstyle.suppressions-not-found", "CheckStyle Suppression file not found"));
-                        }
-                    }
-                }
-            }
-        }
-
-        private File getSuppressionFile(final String fileName) {
-            File suppressionFile = null;
-
-            // check relative to config
-            if (location.getBaseDir() != null) {
-                final File configFileRelativePath = new File(location.getBaseDir(), fileName);
-                if (configFileRelativePath.exists()) {
-                    suppressionFile = configFileRelativePath;
+                if (fileName == null) {
+                    continue;
                 }
-            }
 
-            if (module != null) {
-                final ModuleRootManager rootManager = ModuleRootManager.getInstance(module);
+                ((DefaultConfiguration) config).removeChild(configurationElement);
 
-                // check module content roots                
-                if (suppressionFile == null && rootManager.getContentEntries().length > 0) {
-                    for (final ContentEntry contentEntry : rootManager.getContentEntries()) {
-                        final File contentEntryPath = new File(contentEntry.getFile().getPath(), fileName);
-                        if (contentEntryPath.exists()) {
-                            suppressionFile = contentEntryPath;
-                            break;
-                        }
-                    }
-                }
-
-                // check module file
-                if (suppressionFile == null && module.getModuleFile() != null) {
-                    final File moduleRelativePath = new File(module.getModuleFile().getParent().getPath(), fileName);
-                    if (moduleRelativePath.exists()) {
-                        suppressionFile = moduleRelativePath;
-                    }
-                }
+                final File suppressionFile = suppressionFileRegistry.resolve(fileName, location, module);
+                if (suppressionFile != null) {
+                    final DefaultConfiguration cachedSuppressionFilter
+                            = new DefaultConfiguration(cachedSuppressionFilterElement);
+                    cachedSuppressionFilter.addAttribute(FILE_ATTRIBUTE, suppressionFile.getAbsolutePath());
+                    ((DefaultConfiguration) config).addChild(cachedSuppressionFilter);
 
-                // check project base dir
-                if (suppressionFile == null && module.getProject().getBaseDir() != null) {
-                    final File projectRelativePath = new File(module.getProject().getBaseDir().getPath(), fileName);
-                    if (projectRelativePath.exists()) {
-                        suppressionFile = projectRelativePath;
-                    }
+                } else if (module != null) {
+                    IDEAUtilities.showWarning(module.getProject(),
+                            IDEAUtilities.getResource("checkstyle.suppressions-not-found", "CheckStyle Suppression file not found"));
                 }
             }
-
-            return suppressionFile;
         }
     }
 }
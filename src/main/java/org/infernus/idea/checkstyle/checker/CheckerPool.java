@@ -0,0 +1,318 @@
+package org.infernus.idea.checkstyle.checker;
+
+import com.intellij.openapi.module.Module;
+import com.puppycrawl.tools.checkstyle.api.CheckstyleException;
+import org.infernus.idea.checkstyle.model.ConfigurationLocation;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A bounded pool of checkers built from the same configuration.
+ * <p/>
+ * A checker may only process one set of files at a time, so inspections and scans that
+ * run in parallel borrow a checker each from the pool and return it once they are finished
+ * with it. Scans may not borrow the last checker, so an inspection never waits for a scan
+ * to finish.
+ */
+class CheckerPool {
+
+    /**
+     * The minimum interval between checks that the configuration is unchanged, in ms.
+     */
+    private static final long VALIDATION_INTERVAL = 5000;
+
+    private final List<CachedChecker> idleCheckers = new ArrayList<CachedChecker>();
+    private final Set<CachedChecker> checkers = new HashSet<CachedChecker>();
+    private final Set<CachedChecker> scanCheckers = new HashSet<CachedChecker>();
+
+    private final CheckerFactory checkerFactory;
+    private final ConfigurationLocation location;
+    private final int maxSize;
+
+    private int pendingCount;
+    private int pendingScanCount;
+    private boolean destroyed;
+    private String currentFingerprint;
+    private long lastValidated;
+
+    /**
+     * Create a new pool.
+     *
+     * @param checkerFactory the factory to build checkers with.
+     * @param location       the location of the CheckStyle file.
+     * @param maxSize        the maximum number of checkers to create.
+     */
+    public CheckerPool(final CheckerFactory checkerFactory,
+                       final ConfigurationLocation location,
+                       final int maxSize) {
+        if (checkerFactory == null) {
+            throw new IllegalArgumentException("Factory is required");
+        }
+        if (location == null) {
+            throw new IllegalArgumentException("Location is required");
+        }
+        if (maxSize < 2) {
+            throw new IllegalArgumentException("Pool size must be at least 2");
+        }
+
+        this.checkerFactory = checkerFactory;
+        this.location = location;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Borrow a checker from the pool for an inspection, creating one if none is idle and
+     * the pool is not yet full, or waiting for one to be returned otherwise.
+     *
+     * @param module      the current module.
+     * @param classLoader class loader for CheckStyle use, or null to use
+     *                    the default.
+     * @return a checker, or null if one cannot be created.
+     * @throws CheckstyleException  if CheckStyle initialisation fails.
+     * @throws InterruptedException if interrupted while waiting for a checker.
+     */
+    public CachedChecker borrow(final Module module,
+                                final ClassLoader classLoader)
+            throws CheckstyleException, InterruptedException {
+        return borrow(module, classLoader, false, true);
+    }
+
+    /**
+     * Borrow a checker from the pool for a scan. This behaves as {@link #borrow(Module, ClassLoader)},
+     * except that one checker is always left for inspections.
+     *
+     * @param module      the current module.
+     * @param classLoader class loader for CheckStyle use, or null to use
+     *                    the default.
+     * @return a checker, or null if one cannot be created.
+     * @throws CheckstyleException  if CheckStyle initialisation fails.
+     * @throws InterruptedException if interrupted while waiting for a checker.
+     */
+    public CachedChecker borrowForScan(final Module module,
+                                       final ClassLoader classLoader)
+            throws CheckstyleException, InterruptedException {
+        return borrow(module, classLoader, true, true);
+    }
+
+    private CachedChecker borrow(final Module module,
+                                 final ClassLoader classLoader,
+                                 final boolean forScan,
+                                 final boolean reportErrors)
+            throws CheckstyleException, InterruptedException {
+        synchronized (this) {
+            while (!destroyed && (forScan && scanCheckers.size() + pendingScanCount >= maxSize - 1
+                    || idleCheckers.isEmpty() && checkers.size() + pendingCount >= maxSize)) {
+                wait();
+            }
+
+            if (destroyed) {
+                throw new IllegalStateException("Pool has been destroyed");
+            }
+
+            if (!idleCheckers.isEmpty()) {
+                checkerFactory.recordHit();
+                final CachedChecker checker = idleCheckers.remove(idleCheckers.size() - 1);
+                if (forScan) {
+                    scanCheckers.add(checker);
+                }
+                return checker;
+            }
+
+            ++pendingCount;
+            if (forScan) {
+                ++pendingScanCount;
+            }
+        }
+
+        // checker creation is slow, so we don't hold the lock while building
+        CachedChecker checker = null;
+        try {
+            checker = checkerFactory.buildChecker(location, module, classLoader, reportErrors);
+            return checker;
+
+        } finally {
+            synchronized (this) {
+                --pendingCount;
+                if (forScan) {
+                    --pendingScanCount;
+                }
+                if (checker != null) {
+                    checkers.add(checker);
+                    if (forScan) {
+                        scanCheckers.add(checker);
+                    }
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Build a checker if the pool has none, so that one is ready when first borrowed.
+     *
+     * @param module      the current module.
+     * @param classLoader class loader for CheckStyle use, or null to use
+     *                    the default.
+     * @throws CheckstyleException  if CheckStyle initialisation fails.
+     * @throws InterruptedException if interrupted while waiting for a checker.
+     */
+    public void prewarm(final Module module,
+                        final ClassLoader classLoader)
+            throws CheckstyleException, InterruptedException {
+        synchronized (this) {
+            if (destroyed || !checkers.isEmpty() || pendingCount > 0) {
+                return;
+            }
+        }
+
+        // failures are reported when the checker is next borrowed, not while prewarming
+        release(borrow(module, classLoader, false, false));
+    }
+
+    /**
+     * Does this pool own the given checker?
+     *
+     * @param checker the checker.
+     * @return true if the checker was created by this pool and has not been destroyed.
+     */
+    public synchronized boolean owns(final CachedChecker checker) {
+        return checkers.contains(checker);
+    }
+
+    /**
+     * Return a borrowed checker to the pool.
+     *
+     * @param checker the checker.
+     */
+    public void release(final CachedChecker checker) {
+        if (checker == null) {
+            return;
+        }
+
+        synchronized (this) {
+            scanCheckers.remove(checker);
+
+            if (!destroyed && checkers.contains(checker)
+                    && (currentFingerprint == null || checker.isValid(currentFingerprint))) {
+                idleCheckers.add(checker);
+                notifyAll();
+                return;
+            }
+
+            checkers.remove(checker);
+            notifyAll();
+        }
+
+        checker.getChecker().destroy();
+    }
+
+    /**
+     * Is it time to check that the configuration of the pool is unchanged? If so, the
+     * next check will not be due until the validation interval has passed.
+     *
+     * @return true if the configuration should be checked.
+     */
+    public synchronized boolean isValidationDue() {
+        final long now = System.currentTimeMillis();
+        if (now - lastValidated < VALIDATION_INTERVAL) {
+            return false;
+        }
+
+        lastValidated = now;
+        return true;
+    }
+
+    /**
+     * Destroy any idle checkers that were not built from the current configuration.
+     * Borrowed checkers that are not valid will be destroyed when they are returned.
+     *
+     * @param configFingerprint the fingerprint of the configuration as it is now.
+     */
+    public synchronized void evictStaleCheckers(final String configFingerprint) {
+        currentFingerprint = configFingerprint;
+
+        for (final Iterator<CachedChecker> i = idleCheckers.iterator(); i.hasNext();) {
+            final CachedChecker checker = i.next();
+            if (!checker.isValid(configFingerprint)) {
+                i.remove();
+                checkers.remove(checker);
+                checker.getChecker().destroy();
+                checkerFactory.recordEvictions(1);
+            }
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Destroy any idle checkers that have not been used since the given time.
+     *
+     * @param unusedSince the time, in ms.
+     * @return the number of checkers destroyed.
+     */
+    public synchronized int evictUnusedCheckers(final long unusedSince) {
+        int evictedCount = 0;
+        for (final Iterator<CachedChecker> i = idleCheckers.iterator(); i.hasNext();) {
+            final CachedChecker checker = i.next();
+            if (checker.getTimeStamp() < unusedSince) {
+                i.remove();
+                checkers.remove(checker);
+                checker.getChecker().destroy();
+                ++evictedCount;
+            }
+        }
+
+        notifyAll();
+        return evictedCount;
+    }
+
+    /**
+     * Get the total weight of the checkers in the pool, whether idle or borrowed.
+     *
+     * @return the weight of the pool.
+     */
+    public synchronized int getWeight() {
+        int poolWeight = 0;
+        for (final CachedChecker checker : checkers) {
+            poolWeight += checker.getWeight();
+        }
+        return poolWeight;
+    }
+
+    /**
+     * Get the number of idle checkers.
+     *
+     * @return the number of idle checkers.
+     */
+    public synchronized int getIdleCount() {
+        return idleCheckers.size();
+    }
+
+    /**
+     * Is this pool empty, i.e. there are no checkers idle, borrowed or being built?
+     *
+     * @return true if the pool holds no checkers.
+     */
+    public synchronized boolean isEmpty() {
+        return checkers.isEmpty() && pendingCount == 0;
+    }
+
+    /**
+     * Destroy all idle checkers. Any checkers returned afterwards will be destroyed on return.
+     */
+    public synchronized void destroy() {
+        destroyed = true;
+
+        for (final CachedChecker checker : idleCheckers) {
+            checkers.remove(checker);
+            checker.getChecker().destroy();
+        }
+        idleCheckers.clear();
+
+        notifyAll();
+    }
+}
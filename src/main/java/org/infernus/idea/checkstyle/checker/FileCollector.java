@@ -0,0 +1,276 @@
+package org.infernus.idea.checkstyle.checker;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import org.apache.log4j.Logger;
+import org.infernus.idea.checkstyle.util.CheckStyleUtilities;
+import org.jetbrains.annotations.NonNls;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects the files to scan from a selection of files and directories, grouped by module.
+ * <p/>
+ * Directories are walked via the project file index, so excluded and ignored content is
+ * skipped, and files are filtered on their type and test status before any PSI is looked up.
+ * Selected files are held to the same rules. Directories are walked a level at a time, with
+ * the directories of each level listed in parallel, each within its own read action.
+ */
+final class FileCollector {
+
+    @NonNls
+    private static final Logger LOG = Logger.getLogger(FileCollector.class);
+
+    /**
+     * The maximum number of directories to list at once.
+     */
+    private static final int MAX_COLLECTOR_THREADS = Runtime.getRuntime().availableProcessors();
+
+    private final Project project;
+    private final ProjectFileIndex fileIndex;
+    private final boolean includeTestFiles;
+
+    /**
+     * Create a collector.
+     *
+     * @param project          the project the files belong to.
+     * @param includeTestFiles should files in test source roots be collected?
+     */
+    FileCollector(final Project project, final boolean includeTestFiles) {
+        if (project == null) {
+            throw new IllegalArgumentException("Project is required");
+        }
+
+        this.project = project;
+        this.fileIndex = ProjectRootManager.getInstance(project).getFileIndex();
+        this.includeTestFiles = includeTestFiles;
+    }
+
+    /**
+     * Collect the files to scan.
+     *
+     * @param virtualFiles the selected files and directories.
+     * @return the files to scan for each module, in the order found. Files outside of any module
+     *         are not included.
+     * @throws InterruptedException if the thread is interrupted while directories are walked.
+     */
+    Map<Module, List<PsiFile>> collect(final List<VirtualFile> virtualFiles)
+            throws InterruptedException {
+        final List<VirtualFile> selectedFiles = new ArrayList<VirtualFile>();
+        List<VirtualFile> directories = new ArrayList<VirtualFile>();
+        for (final VirtualFile virtualFile : virtualFiles) {
+            if (virtualFile.isDirectory()) {
+                directories.add(virtualFile);
+            } else {
+                selectedFiles.add(virtualFile);
+            }
+        }
+
+        final Map<Module, List<PsiFile>> moduleToFiles = new LinkedHashMap<Module, List<PsiFile>>();
+        final Set<VirtualFile> collectedFiles = new HashSet<VirtualFile>();
+
+        addFiles(moduleToFiles, collectedFiles, selectedFiles, true);
+
+        if (directories.isEmpty()) {
+            return moduleToFiles;
+        }
+
+        final Set<VirtualFile> walkedDirectories = new HashSet<VirtualFile>();
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                MAX_COLLECTOR_THREADS, new CollectorThreadFactory());
+        try {
+            // the tree is walked a level at a time, with each directory listed by its own task
+            while (!directories.isEmpty()) {
+                final List<Future<DirectoryContent>> pendingListings = new ArrayList<Future<DirectoryContent>>();
+                for (final VirtualFile directory : directories) {
+                    if (walkedDirectories.add(directory)) {
+                        pendingListings.add(executor.submit(new DirectoryListing(directory)));
+                    }
+                }
+
+                // merged in submission order, so the files are in the same order for each scan
+                final List<VirtualFile> candidateFiles = new ArrayList<VirtualFile>();
+                final List<VirtualFile> subdirectories = new ArrayList<VirtualFile>();
+                for (final Future<DirectoryContent> pendingListing : pendingListings) {
+                    try {
+                        final DirectoryContent content = pendingListing.get();
+                        candidateFiles.addAll(content.getFiles());
+                        subdirectories.addAll(content.getDirectories());
+
+                    } catch (ExecutionException e) {
+                        LOG.error("Could not collect files for scan", e.getCause());
+                    }
+                }
+
+                // the listings have already skipped excluded and ignored content
+                addFiles(moduleToFiles, collectedFiles, candidateFiles, false);
+                directories = subdirectories;
+            }
+
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return moduleToFiles;
+    }
+
+    private void addFiles(final Map<Module, List<PsiFile>> moduleToFiles,
+                          final Set<VirtualFile> collectedFiles,
+                          final List<VirtualFile> candidateFiles,
+                          final boolean checkContent) {
+        if (candidateFiles.isEmpty()) {
+            return;
+        }
+
+        ApplicationManager.getApplication().runReadAction(new Runnable() {
+            public void run() {
+                final PsiManager psiManager = PsiManager.getInstance(project);
+                for (final VirtualFile candidateFile : candidateFiles) {
+                    if (!isCandidate(candidateFile)
+                            || (checkContent && !isInContent(candidateFile))
+                            || !collectedFiles.add(candidateFile)) {
+                        continue;
+                    }
+
+                    final Module module = fileIndex.getModuleForFile(candidateFile);
+                    if (module == null) {
+                        continue;
+                    }
+
+                    final PsiFile psiFile = psiManager.findFile(candidateFile);
+                    if (psiFile == null) {
+                        continue;
+                    }
+
+                    List<PsiFile> filesForModule = moduleToFiles.get(module);
+                    if (filesForModule == null) {
+                        filesForModule = new ArrayList<PsiFile>();
+                        moduleToFiles.put(module, filesForModule);
+                    }
+                    filesForModule.add(psiFile);
+                }
+            }
+        });
+    }
+
+    /**
+     * Should a file be scanned? This checks only the file type and location, and so does not
+     * need the PSI.
+     *
+     * @param virtualFile the file.
+     * @return true if the file should be scanned.
+     */
+    private boolean isCandidate(final VirtualFile virtualFile) {
+        return virtualFile.isValid()
+                && !virtualFile.isDirectory()
+                && CheckStyleUtilities.isValidFileType(virtualFile.getFileType())
+                && (includeTestFiles || !fileIndex.isInTestSourceContent(virtualFile));
+    }
+
+    /**
+     * Is a file part of the project's content? Excluded and ignored files are not.
+     *
+     * @param virtualFile the file.
+     * @return true if the file is in the content of a module.
+     */
+    private boolean isInContent(final VirtualFile virtualFile) {
+        return fileIndex.isInContent(virtualFile)
+                && !fileIndex.isIgnored(virtualFile);
+    }
+
+    /**
+     * Should the files beneath a directory be collected? Excluded and ignored directories are
+     * skipped, but a directory outside of any module is walked, as it may hold a module's
+     * content root.
+     *
+     * @param directory the directory.
+     * @return true if the directory should be walked.
+     */
+    private boolean isWalked(final VirtualFile directory) {
+        return !fileIndex.isIgnored(directory)
+                && (fileIndex.isInContent(directory) || fileIndex.getContentRootForFile(directory) == null);
+    }
+
+    /**
+     * The candidate files and the directories to walk in a single directory.
+     */
+    private static final class DirectoryContent {
+        private final List<VirtualFile> files = new ArrayList<VirtualFile>();
+        private final List<VirtualFile> directories = new ArrayList<VirtualFile>();
+
+        public List<VirtualFile> getFiles() {
+            return files;
+        }
+
+        public List<VirtualFile> getDirectories() {
+            return directories;
+        }
+    }
+
+    /**
+     * Task to list the candidate files and the directories to walk in a directory.
+     */
+    private class DirectoryListing implements Callable<DirectoryContent> {
+        private final VirtualFile directory;
+
+        public DirectoryListing(final VirtualFile directory) {
+            this.directory = directory;
+        }
+
+        public DirectoryContent call() {
+            return ApplicationManager.getApplication().runReadAction(new Computable<DirectoryContent>() {
+                public DirectoryContent compute() {
+                    final DirectoryContent content = new DirectoryContent();
+                    if (Thread.currentThread().isInterrupted() || !directory.isValid()) {
+                        return content;
+                    }
+
+                    for (final VirtualFile child : directory.getChildren()) {
+                        if (child.isDirectory()) {
+                            if (isWalked(child)) {
+                                content.getDirectories().add(child);
+                            }
+
+                        } else if (isCandidate(child) && isInContent(child)) {
+                            content.getFiles().add(child);
+                        }
+                    }
+                    return content;
+                }
+            });
+        }
+    }
+
+    /**
+     * Factory for low priority collector threads.
+     */
+    private static class CollectorThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "CheckStyle-IDEA File Collector " + threadCount.incrementAndGet());
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -6,27 +6,26 @@ import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.module.ModuleUtil;
 import com.intellij.openapi.roots.ModuleRootManager;
+import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
-import com.puppycrawl.tools.checkstyle.Checker;
-import com.puppycrawl.tools.checkstyle.api.Configuration;
+import com.puppycrawl.tools.checkstyle.api.AuditEvent;
+import com.puppycrawl.tools.checkstyle.api.CheckstyleException;
 import org.apache.log4j.Logger;
-import org.infernus.idea.checkstyle.CheckStyleModulePlugin;
 import org.infernus.idea.checkstyle.CheckStylePlugin;
 import org.infernus.idea.checkstyle.checks.Check;
 import org.infernus.idea.checkstyle.checks.CheckFactory;
-import org.infernus.idea.checkstyle.exception.CheckStylePluginException;
 import org.infernus.idea.checkstyle.model.ConfigurationLocation;
 import org.infernus.idea.checkstyle.util.CheckStyleUtilities;
 import org.jetbrains.annotations.NonNls;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -38,6 +37,7 @@ final class FileScanner implements Runnable {
     private CheckStylePlugin plugin;
     private Map<PsiFile, List<ProblemDescriptor>> results;
     private List<PsiFile> filesToScan;
+    private ConfigurationLocation location;
     private ClassLoader moduleClassLoader;
     private Throwable error;
 
@@ -47,17 +47,25 @@ final class FileScanner implements Runnable {
     @NonNls
     private static final Logger LOG = Logger.getLogger(FileScanner.class);
 
+    /**
+     * The prefix of the names given to files whose results are replayed from the cache.
+     */
+    @NonNls
+    private static final String CACHED_FILE_PREFIX = "cached-";
+
     /**
      * Create a new file scanner.
      *
      * @param checkStylePlugin  CheckStylePlugin.
      * @param fileToScan        the file to scan.
+     * @param location          the configuration for the file's module.
      * @param moduleClassLoader the class loader for the file's module
      */
     public FileScanner(final CheckStylePlugin checkStylePlugin,
                        final PsiFile fileToScan,
+                       final ConfigurationLocation location,
                        final ClassLoader moduleClassLoader) {
-        this(checkStylePlugin, Arrays.asList(fileToScan), moduleClassLoader);
+        this(checkStylePlugin, Arrays.asList(fileToScan), location, moduleClassLoader);
     }
 
     /**
@@ -65,13 +73,16 @@ final class FileScanner implements Runnable {
      *
      * @param checkStylePlugin  CheckStylePlugin.
      * @param filesToScan       the files to scan.
-     * @param moduleClassLoader the class loader for the file's module
+     * @param location          the configuration for the files' module.
+     * @param moduleClassLoader the class loader for the files' module
      */
     public FileScanner(final CheckStylePlugin checkStylePlugin,
                        final List<PsiFile> filesToScan,
+                       final ConfigurationLocation location,
                        final ClassLoader moduleClassLoader) {
         this.plugin = checkStylePlugin;
         this.filesToScan = filesToScan;
+        this.location = location;
         this.moduleClassLoader = moduleClassLoader;
     }
 
@@ -80,7 +91,7 @@ final class FileScanner implements Runnable {
      */
     public void run() {
         try {
-            results = checkPsiFile(filesToScan, moduleClassLoader);
+            results = checkPsiFile(filesToScan);
 
             this.plugin.getToolWindowPanel().incrementProgressBarBy(filesToScan.size());
         } catch (Throwable e) {
@@ -115,14 +126,12 @@ final class FileScanner implements Runnable {
      *
      * @param psiFilesToScan    the PSI psiFilesToScan to scan. Thezse will be
      *                          ignored if not a java file and not from the same module.
-     * @param moduleClassLoader the class loader for the current module.
      * @return a list of tree nodes representing the result tree for this
      *         file, an empty list or null if this file is invalid or
      *         has no errors.
      * @throws Throwable if the
      */
-    private Map<PsiFile, List<ProblemDescriptor>> checkPsiFile(final List<PsiFile> psiFilesToScan,
-                                                               final ClassLoader moduleClassLoader)
+    private Map<PsiFile, List<ProblemDescriptor>> checkPsiFile(final List<PsiFile> psiFilesToScan)
             throws Throwable {
         if (psiFilesToScan == null || psiFilesToScan.isEmpty()) {
             LOG.debug("No elements were specified");
@@ -131,176 +140,239 @@ final class FileScanner implements Runnable {
 
         Module module = null;
 
-        final List<File> tempFiles = new ArrayList<File>();
-        final Map<String, PsiFile> filesToElements = new HashMap<String, PsiFile>();
+        final List<PsiFile> validFiles = new ArrayList<PsiFile>();
 
         final boolean checkTestClasses = this.plugin.getConfiguration().isScanningTestClasses();
 
-        try {
-            for (final PsiFile psiFile : psiFilesToScan) {
-                final String fileDescription = (psiFile != null ? psiFile.getName() : null);
-                LOG.debug("Processing " + fileDescription);
+        for (final PsiFile psiFile : psiFilesToScan) {
+            final String fileDescription = (psiFile != null ? psiFile.getName() : null);
+            LOG.debug("Processing " + fileDescription);
 
-                if (psiFile == null || !psiFile.isValid() || !psiFile.isPhysical()) {
-                    LOG.debug("Skipping as invalid type: " + fileDescription);
-                    continue;
-                }
+            final Module elementModule = moduleForValidFile(psiFile, checkTestClasses);
+            if (elementModule == null) {
+                continue;
+            }
 
-                if (module == null) {
-                    module = ModuleUtil.findModuleForPsiElement(psiFile);
-                } else {
-                    final Module elementModule = ModuleUtil.findModuleForPsiElement(psiFile);
-                    if (!elementModule.equals(module)) {
-                        LOG.debug("Skipping as modules do not match: " + fileDescription + " : " + elementModule
-                                + " does not match " + module);
-                        continue;
-                    }
+            if (module == null) {
+                module = elementModule;
+            } else if (!elementModule.equals(module)) {
+                LOG.debug("Skipping as modules do not match: " + fileDescription + " : " + elementModule
+                        + " does not match " + module);
+                continue;
+            }
+
+            validFiles.add(psiFile);
+        }
+
+        if (module == null || validFiles.isEmpty()) {
+            LOG.debug("No valid files were supplied");
+            return null;
+        }
+
+        return performCheckStyleScan(module, validFiles);
+    }
+
+    /**
+     * Find the module of a file, if the file should be scanned. Each file is examined in a
+     * read action of its own, so a scan does not hold off write actions for its duration.
+     *
+     * @param psiFile          the file.
+     * @param checkTestClasses should test classes be scanned?
+     * @return the module of the file, or null if the file should not be scanned.
+     */
+    private Module moduleForValidFile(final PsiFile psiFile,
+                                      final boolean checkTestClasses) {
+        return ApplicationManager.getApplication().runReadAction(new Computable<Module>() {
+            public Module compute() {
+                if (psiFile == null || !psiFile.isValid() || !psiFile.isPhysical()) {
+                    LOG.debug("Skipping as invalid type: " + (psiFile != null ? psiFile.getName() : null));
+                    return null;
                 }
 
                 if (!checkTestClasses && isTestClass(psiFile)) {
                     LOG.debug("Skipping test class " + psiFile.getName());
-                    continue;
+                    return null;
                 }
 
                 if (!CheckStyleUtilities.isValidFileType(psiFile.getFileType())) {
                     LOG.debug("Skipping invalid file type " + psiFile.getName());
-                    continue;
+                    return null;
                 }
 
-                final File tempFile = createTemporaryFile(psiFile);
-                if (tempFile != null) {
-                    tempFiles.add(tempFile);
-                    filesToElements.put(tempFile.getAbsolutePath(), psiFile);
-                }
+                return ModuleUtil.findModuleForPsiElement(psiFile);
             }
-
-            if (module == null || filesToElements.size() == 0) {
-                LOG.debug("No valid files were supplied");
-                return null;
-            }
-
-            return performCheckStyleScan(moduleClassLoader, module, tempFiles, filesToElements);
-
-        } finally {
-            for (final File tempFile : tempFiles) {
-                if (tempFile != null && tempFile.exists()) {
-                    tempFile.delete();
-                }
-            }
-        }
+        });
     }
 
-    @SuppressWarnings({"SynchronizationOnLocalVariableOrMethodParameter"})
-    private Map<PsiFile, List<ProblemDescriptor>> performCheckStyleScan(final ClassLoader moduleClassLoader,
-                                                                        final Module module,
-                                                                        final List<File> tempFiles,
-                                                                        final Map<String, PsiFile> filesToElements) {
+    private Map<PsiFile, List<ProblemDescriptor>> performCheckStyleScan(final Module module,
+                                                                        final List<PsiFile> psiFiles)
+            throws CheckstyleException {
         final InspectionManager manager = InspectionManager.getInstance(module.getProject());
-        final Checker checker = getChecker(module, moduleClassLoader);
-        if (checker == null) {
+
+        // each scan borrows a checker of its own, so scans may run concurrently
+        final CheckerFactory checkerFactory = CheckerFactory.getInstance();
+        final CachedChecker cachedChecker = checkerFactory.borrowScanChecker(location, module, moduleClassLoader);
+        if (cachedChecker == null) {
             return Collections.emptyMap();
         }
 
-        final List<Check> checks = CheckFactory.getChecks(getConfig(module));
+        try {
+            final List<Check> checks = CheckFactory.getChecks(cachedChecker.getConfig());
+            final AuditResultCache resultCache = plugin.getResultCache();
+            final String classpathFingerprint = plugin.getModuleClasspathFingerprint(moduleClassLoader);
+
+            final Map<File, String> filesToText = new LinkedHashMap<File, String>();
+            final Map<String, PsiFile> filesToElements = new HashMap<String, PsiFile>();
+            final Map<String, String> filesToKeys = new HashMap<String, String>();
+            final Map<String, String> filesToPaths = new HashMap<String, String>();
+            final Map<PsiFile, List<AuditResultCache.CachedAuditEvent>> cachedResults
+                    = new HashMap<PsiFile, List<AuditResultCache.CachedAuditEvent>>();
+
+            for (final PsiFile psiFile : psiFiles) {
+                final FileSnapshot snapshot = snapshotOf(psiFile);
+                if (snapshot == null) {
+                    continue;
+                }
 
-        final CheckStyleAuditListener listener;
-        synchronized (checker) {
-            listener = new CheckStyleAuditListener(filesToElements, manager, true, checks);
-            checker.addListener(listener);
-            checker.process(tempFiles);
-        }
+                final File fileForScan = snapshot.getFileForScan();
+                final String text = snapshot.getText();
+                final String key = AuditResultCache.keyFor(text, fileForScan.getAbsolutePath(),
+                        cachedChecker.getFingerprint(), classpathFingerprint);
+                final String filePath = snapshot.getPath();
+                final List<AuditResultCache.CachedAuditEvent> cachedEvents
+                        = resultCache.get(filePath, key);
+                if (cachedEvents != null) {
+                    LOG.debug("Using cached results for " + psiFile.getName());
+                    cachedResults.put(psiFile, cachedEvents);
+                    continue;
+                }
 
-        return listener.getAllProblems();
-    }
+                filesToText.put(fileForScan, text);
+                filesToElements.put(fileForScan.getAbsolutePath(), psiFile);
+                filesToKeys.put(fileForScan.getAbsolutePath(), key);
+                if (filePath != null) {
+                    filesToPaths.put(fileForScan.getAbsolutePath(), filePath);
+                }
+            }
 
-    private File createTemporaryFile(final PsiFile psiFile) {
-        File tempFile = null;
-        try {
-            // we need to copy to a file as IntelliJ may not have
-            // saved the file recently...
-            final CreateTempFileThread fileThread
-                    = new CreateTempFileThread(psiFile);
-            ApplicationManager.getApplication().runReadAction(fileThread);
-
-            // rethrow any error from the thread.
-            if (fileThread.getFailure() != null) {
-                throw fileThread.getFailure();
+            final Map<PsiFile, List<ProblemDescriptor>> problems = new HashMap<PsiFile, List<ProblemDescriptor>>();
+
+            if (!filesToText.isEmpty()) {
+                final InMemoryChecker checker = cachedChecker.getChecker();
+                final CheckStyleAuditListener listener = new CheckStyleAuditListener(
+                        filesToElements, manager, true, checks);
+                checker.addListener(listener);
+                try {
+                    checker.processText(filesToText);
+                } finally {
+                    checker.removeListener(listener);
+                }
+
+                problems.putAll(listener.getAllProblems());
+                cacheResults(resultCache, filesToKeys, filesToPaths, listener.getAuditEvents());
             }
 
-            tempFile = fileThread.getFile();
-            if (tempFile == null) {
-                throw new IllegalStateException("Failed to create temporary file.");
+            if (!cachedResults.isEmpty()) {
+                problems.putAll(replayCachedResults(cachedResults, manager, checks));
             }
 
-        } catch (IOException e) {
-            LOG.error("Failure when creating temp file", e);
-        }
+            return problems;
 
-        return tempFile;
+        } finally {
+            checkerFactory.returnChecker(location, moduleClassLoader, cachedChecker);
+        }
     }
 
-
     /**
-     * Produce a CheckStyle checker.
+     * Store the events raised for each scanned file in the result cache.
      *
-     * @param module      the module the checked file(s) belong to.
-     * @param classLoader CheckStyle classloader or null if default
-     *                    should be used.
-     * @return a checker.
+     * @param resultCache the cache to store the events in.
+     * @param filesToKeys  the names of the scanned files mapped to their cache keys.
+     * @param filesToPaths the names of the scanned files mapped to the paths of the original files.
+     * @param events       the events raised during the scan.
      */
+    private void cacheResults(final AuditResultCache resultCache,
+                              final Map<String, String> filesToKeys,
+                              final Map<String, String> filesToPaths,
+                              final List<AuditEvent> events) {
+        final Map<String, List<AuditEvent>> eventsByFile = new HashMap<String, List<AuditEvent>>();
+        for (final String fileName : filesToKeys.keySet()) {
+            eventsByFile.put(fileName, new ArrayList<AuditEvent>());
+        }
 
-    private Checker getChecker(final Module module,
-                               final ClassLoader classLoader) {
-        LOG.debug("Getting CheckStyle checker.");
-
-        try {
-            final ConfigurationLocation location = getConfigurationLocation(module);
-            if (location == null) {
-                return null;
+        for (final AuditEvent event : events) {
+            final List<AuditEvent> eventsForFile = eventsByFile.get(event.getFileName());
+            if (eventsForFile != null) {
+                eventsForFile.add(event);
             }
+        }
 
-            return CheckerFactory.getInstance().getChecker(location, module, classLoader);
-
-        } catch (Throwable e) {
-            throw new CheckStylePluginException("Couldn't create Checker", e);
+        for (final Map.Entry<String, List<AuditEvent>> fileEvents : eventsByFile.entrySet()) {
+            resultCache.put(filesToPaths.get(fileEvents.getKey()), filesToKeys.get(fileEvents.getKey()),
+                    fileEvents.getValue());
         }
     }
 
-    private ConfigurationLocation getConfigurationLocation(final Module module) {
-        final ConfigurationLocation location;
-        if (module != null) {
-            final CheckStyleModulePlugin checkStyleModulePlugin = module.getComponent(CheckStyleModulePlugin.class);
-            if (checkStyleModulePlugin == null) {
-                throw new IllegalStateException("Couldn't get checkstyle module plugin");
+    /**
+     * Convert cached events to problems, as though the files had been scanned.
+     *
+     * @param cachedResults the cached events for each file.
+     * @param manager       the current inspection manager.
+     * @param checks        the check modifications to use.
+     * @return the problems for the files.
+     */
+    private Map<PsiFile, List<ProblemDescriptor>> replayCachedResults(
+            final Map<PsiFile, List<AuditResultCache.CachedAuditEvent>> cachedResults,
+            final InspectionManager manager,
+            final List<Check> checks) {
+        final Map<String, PsiFile> namesToFiles = new HashMap<String, PsiFile>();
+        final List<AuditEvent> events = new ArrayList<AuditEvent>();
+
+        int fileIndex = 0;
+        for (final Map.Entry<PsiFile, List<AuditResultCache.CachedAuditEvent>> cachedResult
+                : cachedResults.entrySet()) {
+            final String fileName = CACHED_FILE_PREFIX + fileIndex++;
+            namesToFiles.put(fileName, cachedResult.getKey());
+
+            for (final AuditResultCache.CachedAuditEvent cachedEvent : cachedResult.getValue()) {
+                events.add(cachedEvent.toAuditEvent(this, fileName, moduleClassLoader));
             }
-            location = checkStyleModulePlugin.getConfiguration().getActiveConfiguration();
+        }
 
-        } else {
-            location = plugin.getConfiguration().getActiveConfiguration();
+        final CheckStyleAuditListener listener = new CheckStyleAuditListener(
+                namesToFiles, manager, true, checks);
+        listener.auditStarted(null);
+        for (final AuditEvent event : events) {
+            listener.addError(event);
         }
-        return location;
+        listener.auditFinished(null);
+
+        return listener.getAllProblems();
     }
 
     /**
-     * Retrieve a CheckStyle configuration.
+     * Take a copy of the state of a file needed for a scan. This is done in a read action, so
+     * CheckStyle itself may run outside of one.
      *
-     * @param module the module to fetch configuration for.
-     * @return a checkstyle configuration.
+     * @param psiFile the file.
+     * @return the state of the file, or null if the file is no longer valid.
      */
-    private Configuration getConfig(final Module module) {
-        LOG.debug("Getting CheckStyle checker.");
-
-        try {
-            final ConfigurationLocation location = getConfigurationLocation(module);
-            if (location == null) {
-                return null;
-            }
+    private FileSnapshot snapshotOf(final PsiFile psiFile) {
+        return ApplicationManager.getApplication().runReadAction(new Computable<FileSnapshot>() {
+            public FileSnapshot compute() {
+                if (!psiFile.isValid()) {
+                    return null;
+                }
 
-            return CheckerFactory.getInstance().getConfig(location);
+                final VirtualFile virtualFile = psiFile.getVirtualFile();
+                String path = null;
+                if (virtualFile != null) {
+                    path = virtualFile.getPath();
+                }
 
-        } catch (Throwable e) {
-            throw new CheckStylePluginException("Couldn't create Checker", e);
-        }
+                return new FileSnapshot(psiFile.getText(), CheckStyleUtilities.getFileForScan(psiFile), path);
+            }
+        });
     }
 
     private boolean isTestClass(final PsiElement element) {
@@ -317,4 +389,38 @@ final class FileScanner implements Runnable {
         final ModuleRootManager moduleRootManager = ModuleRootManager.getInstance(module);
         return moduleRootManager != null && moduleRootManager.getFileIndex().isInTestSourceContent(elementFile);
     }
+
+    /**
+     * The state of a file at the point it was read for a scan.
+     */
+    private static final class FileSnapshot {
+        private final String text;
+        private final File fileForScan;
+        private final String path;
+
+        private FileSnapshot(final String text,
+                             final File fileForScan,
+                             final String path) {
+            this.text = text;
+            this.fileForScan = fileForScan;
+            this.path = path;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public File getFileForScan() {
+            return fileForScan;
+        }
+
+        /**
+         * Get the path of the file in the VFS.
+         *
+         * @return the path, or null if the file has no virtual file.
+         */
+        public String getPath() {
+            return path;
+        }
+    }
 }
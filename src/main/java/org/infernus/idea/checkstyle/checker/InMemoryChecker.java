@@ -0,0 +1,123 @@
+package org.infernus.idea.checkstyle.checker;
+
+import com.puppycrawl.tools.checkstyle.Checker;
+import com.puppycrawl.tools.checkstyle.api.CheckstyleException;
+import com.puppycrawl.tools.checkstyle.api.FileSetCheck;
+import com.puppycrawl.tools.checkstyle.api.LocalizedMessage;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A checker that can process the text of files held in memory, rather than reading
+ * the files from disk.
+ * <p/>
+ * This allows us to check the content of the editor without first writing it to
+ * a temporary file.
+ */
+public class InMemoryChecker extends Checker {
+
+    private final List<FileSetCheck> fileSetChecks = new ArrayList<FileSetCheck>();
+
+    private String charset = System.getProperty("file.encoding", "UTF-8");
+
+    /**
+     * Create a new checker.
+     *
+     * @throws CheckstyleException if the checker cannot be created.
+     */
+    public InMemoryChecker() throws CheckstyleException {
+        super();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addFileSetCheck(final FileSetCheck fileSetCheck) {
+        super.addFileSetCheck(fileSetCheck);
+        fileSetChecks.add(fileSetCheck);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setCharset(final String newCharset) throws UnsupportedEncodingException {
+        super.setCharset(newCharset);
+        this.charset = newCharset;
+    }
+
+    /**
+     * Process the given files, using the supplied text rather than the content of
+     * the files on disk.
+     * <p/>
+     * Events are raised against the absolute path of each file, as they are when
+     * files are processed from disk.
+     *
+     * @param filesToText the files to process, mapped to their text.
+     */
+    public void processText(final Map<File, String> filesToText) {
+        fireAuditStarted();
+
+        for (final FileSetCheck fileSetCheck : fileSetChecks) {
+            fileSetCheck.beginProcessing(charset);
+        }
+
+        for (final Map.Entry<File, String> fileToText : filesToText.entrySet()) {
+            final File file = fileToText.getKey();
+            final String fileName = file.getAbsolutePath();
+            fireFileStarted(fileName);
+
+            final List<String> lines = splitLines(fileToText.getValue());
+            final TreeSet<LocalizedMessage> messages = new TreeSet<LocalizedMessage>();
+            for (final FileSetCheck fileSetCheck : fileSetChecks) {
+                messages.addAll(fileSetCheck.process(file, lines));
+            }
+
+            fireErrors(fileName, messages);
+            fireFileFinished(fileName);
+        }
+
+        for (final FileSetCheck fileSetCheck : fileSetChecks) {
+            fileSetCheck.finishProcessing();
+            fileSetCheck.destroy();
+        }
+
+        fireAuditFinished();
+    }
+
+    /**
+     * Split text into lines, as CheckStyle does when reading a file.
+     *
+     * @param text the text to split.
+     * @return the lines of the text, without line terminators.
+     */
+    static List<String> splitLines(final String text) {
+        final List<String> lines = new ArrayList<String>();
+
+        int lineStart = 0;
+        final int length = text.length();
+        for (int i = 0; i < length; ++i) {
+            final char character = text.charAt(i);
+            if (character == '\n' || character == '\r') {
+                lines.add(text.substring(lineStart, i));
+
+                if (character == '\r' && i + 1 < length && text.charAt(i + 1) == '\n') {
+                    ++i;
+                }
+                lineStart = i + 1;
+            }
+        }
+
+        if (lineStart < length) {
+            lines.add(text.substring(lineStart));
+        }
+
+        return lines;
+    }
+}
@@ -0,0 +1,297 @@
+package org.infernus.idea.checkstyle.checker;
+
+import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer;
+import com.intellij.codeInspection.ProblemDescriptor;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NonNls;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Schedules on-the-fly inspections of files in the background.
+ * <p/>
+ * Rather than checking a file each time the daemon asks, a check is scheduled once edits
+ * to the file have paused. Any check scheduled for an earlier version of the file is
+ * cancelled, and results from a check that completes after a further edit are discarded.
+ * Until the check of the current version completes, the last results for the file are
+ * returned, and the daemon is restarted once fresh results are available. Checks that
+ * complete within the debounce delay of one another share a single restart.
+ */
+public class InspectionScheduler {
+
+    /**
+     * Logger for this class.
+     */
+    @NonNls
+    private static final Logger LOG = Logger.getLogger(InspectionScheduler.class);
+
+    /**
+     * The time to wait for further edits before checking a file, in ms.
+     */
+    private static final long DEBOUNCE_DELAY = 300;
+
+    /**
+     * The maximum number of files to hold results for.
+     */
+    private static final int MAX_FILES = 100;
+
+    private static final ProblemDescriptor[] NO_PROBLEMS = new ProblemDescriptor[0];
+
+    private final Map<String, FileState> fileStates = new LinkedHashMap<String, FileState>(16, 0.75f, true) {
+        private static final long serialVersionUID = 5290843521937018233L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, FileState> eldest) {
+            if (size() > MAX_FILES) {
+                eldest.getValue().cancel();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(
+            Runtime.getRuntime().availableProcessors(), new InspectionThreadFactory());
+
+    private final AtomicBoolean restartPending = new AtomicBoolean();
+
+    private final Project project;
+
+    /**
+     * Create a new scheduler.
+     *
+     * @param project the project the inspected files belong to.
+     */
+    public InspectionScheduler(final Project project) {
+        if (project == null) {
+            throw new IllegalArgumentException("Project is required");
+        }
+
+        this.project = project;
+    }
+
+    /**
+     * Get the problems for a file, scheduling a check if the current version of the file
+     * has not yet been checked.
+     *
+     * @param psiFile the file.
+     * @param check   the check to run for the file.
+     * @return the problems for the current version of the file if it has been checked,
+     *         otherwise the problems last found in the file that are still valid.
+     */
+    public ProblemDescriptor[] getProblems(final PsiFile psiFile,
+                                           final Callable<ProblemDescriptor[]> check) {
+        final VirtualFile virtualFile = psiFile.getVirtualFile();
+        if (virtualFile == null) {
+            return NO_PROBLEMS;
+        }
+
+        final String fileKey = virtualFile.getUrl();
+        final long modificationStamp = psiFile.getModificationStamp();
+
+        final ProblemDescriptor[] lastProblems;
+        synchronized (fileStates) {
+            FileState fileState = fileStates.get(fileKey);
+            if (fileState == null) {
+                fileState = new FileState();
+                fileStates.put(fileKey, fileState);
+            }
+
+            if (fileState.problems != null && fileState.checkedStamp == modificationStamp) {
+                return fileState.problems;
+            }
+
+            if (fileState.pendingCheck == null || fileState.pendingStamp != modificationStamp) {
+                fileState.cancel();
+                fileState.pendingStamp = modificationStamp;
+                fileState.pendingCheck = schedule(new ScheduledCheck(fileState, modificationStamp, check));
+            }
+
+            lastProblems = fileState.problems;
+        }
+
+        return validProblems(lastProblems);
+    }
+
+    /**
+     * Discard all results and cancel any pending checks, e.g. when the configuration changes.
+     */
+    public void invalidate() {
+        synchronized (fileStates) {
+            for (final FileState fileState : fileStates.values()) {
+                fileState.cancel();
+            }
+            fileStates.clear();
+        }
+    }
+
+    /**
+     * Stop the scheduler. No further checks will be run.
+     */
+    public void shutdown() {
+        invalidate();
+        executor.shutdownNow();
+    }
+
+    private ScheduledFuture<?> schedule(final ScheduledCheck scheduledCheck) {
+        try {
+            return executor.schedule(scheduledCheck, DEBOUNCE_DELAY, TimeUnit.MILLISECONDS);
+
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Scheduler has been shut down");
+            return null;
+        }
+    }
+
+    /**
+     * Filter out problems against elements that have since been removed from the file.
+     *
+     * @param problems the problems, or null.
+     * @return the problems that are still valid.
+     */
+    private ProblemDescriptor[] validProblems(final ProblemDescriptor[] problems) {
+        if (problems == null || problems.length == 0) {
+            return NO_PROBLEMS;
+        }
+
+        final List<ProblemDescriptor> validProblems = new ArrayList<ProblemDescriptor>(problems.length);
+        for (final ProblemDescriptor problem : problems) {
+            final PsiElement element = problem.getPsiElement();
+            if (element != null && element.isValid()) {
+                validProblems.add(problem);
+            }
+        }
+        return validProblems.toArray(new ProblemDescriptor[validProblems.size()]);
+    }
+
+    /**
+     * Restart the daemon so fresh results are picked up. Restarts are coalesced, as
+     * each restarts the analysis of every open file.
+     */
+    private void restartDaemon() {
+        if (!restartPending.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            executor.schedule(new Runnable() {
+                public void run() {
+                    restartPending.set(false);
+                    ApplicationManager.getApplication().invokeLater(new Runnable() {
+                        public void run() {
+                            if (!project.isDisposed()) {
+                                DaemonCodeAnalyzer.getInstance(project).restart();
+                            }
+                        }
+                    });
+                }
+            }, DEBOUNCE_DELAY, TimeUnit.MILLISECONDS);
+
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Scheduler has been shut down");
+            restartPending.set(false);
+        }
+    }
+
+    /**
+     * The state of the checks of a single file. Guarded by the lock on the file states.
+     */
+    private static class FileState {
+        private ProblemDescriptor[] problems;
+        private long checkedStamp = -1;
+
+        private ScheduledFuture<?> pendingCheck;
+        private long pendingStamp = -1;
+
+        private void cancel() {
+            if (pendingCheck != null) {
+                pendingCheck.cancel(false);
+                pendingCheck = null;
+            }
+            pendingStamp = -1;
+        }
+    }
+
+    private class ScheduledCheck implements Runnable {
+        private final FileState fileState;
+        private final long modificationStamp;
+        private final Callable<ProblemDescriptor[]> check;
+
+        public ScheduledCheck(final FileState fileState,
+                              final long modificationStamp,
+                              final Callable<ProblemDescriptor[]> check) {
+            this.fileState = fileState;
+            this.modificationStamp = modificationStamp;
+            this.check = check;
+        }
+
+        private boolean isCurrent() {
+            return fileState.pendingStamp == modificationStamp;
+        }
+
+        public void run() {
+            synchronized (fileStates) {
+                if (!isCurrent()) {
+                    return;
+                }
+            }
+
+            final ProblemDescriptor[] problems;
+            try {
+                problems = check.call();
+
+            } catch (Throwable e) {
+                LOG.error("The inspection could not be executed.", e);
+                return;
+            }
+
+            synchronized (fileStates) {
+                if (!isCurrent()) {
+                    LOG.debug("Discarding results of a superseded check");
+                    return;
+                }
+
+                fileState.pendingCheck = null;
+                if (problems != null) {
+                    fileState.problems = problems;
+                    fileState.checkedStamp = modificationStamp;
+                } else {
+                    // the check could not run, so allow it to be rescheduled
+                    fileState.pendingStamp = -1;
+                }
+            }
+
+            if (problems != null) {
+                restartDaemon();
+            }
+        }
+    }
+
+    private static class InspectionThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "CheckStyle-IDEA Inspection " + threadCount.incrementAndGet());
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.infernus.idea.checkstyle.checker;
+
+/**
+ * An index of the offsets at which each line of a file starts, so that the positions
+ * reported by CheckStyle may be found without walking the text for each event.
+ */
+final class LineIndex {
+    private final char[] text;
+    private final int[] lineStarts;
+    private final int lineCount;
+
+    /**
+     * Index the given text. Lines may be terminated by CR, LF or CRLF.
+     *
+     * @param text the text of the file.
+     */
+    LineIndex(final char[] text) {
+        this.text = text;
+
+        int[] starts = new int[Math.max(16, text.length / 32)];
+        int count = 1; // line 1 is offset 0
+        for (int i = 0; i < text.length; ++i) {
+            final char character = text[i];
+            if (character == '\n' || (character == '\r' && (i + 1 >= text.length || text[i + 1] != '\n'))) {
+                if (count == starts.length) {
+                    final int[] grownStarts = new int[starts.length * 2];
+                    System.arraycopy(starts, 0, grownStarts, 0, count);
+                    starts = grownStarts;
+                }
+                starts[count++] = i + 1;
+            }
+        }
+
+        this.lineStarts = starts;
+        this.lineCount = count;
+    }
+
+    /**
+     * Find the offset of a position in the text.
+     *
+     * @param line   the line, starting at 1.
+     * @param column the column, starting at 0.
+     * @return the offset of the position, limited to the end of the line.
+     */
+    int offsetOf(final int line, final int column) {
+        if (line > lineCount) {
+            return text.length;
+        }
+
+        final int lineStart = lineStarts[line - 1];
+        final int lineEnd = line < lineCount ? lineStarts[line] : text.length;
+        return Math.min(lineStart + column, Math.max(lineStart, lineEnd - 1));
+    }
+
+    /**
+     * Is there whitespace at an offset in the text?
+     *
+     * @param offset the offset.
+     * @return true if the offset is within the text and holds whitespace.
+     */
+    boolean isWhitespaceAt(final int offset) {
+        return offset < text.length && Character.isWhitespace(text[offset]);
+    }
+}
@@ -0,0 +1,302 @@
+package org.infernus.idea.checkstyle.checker;
+
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NonNls;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A cache of the class loaders used by CheckStyle to resolve the classes of a module.
+ * <p/>
+ * Modules with the same compilation classpath share a class loader, so classes loaded by
+ * one scan are available to the next. Class loaders are counted out and back in; a loader
+ * that is evicted while in use is only closed once the last user has released it.
+ * <p/>
+ * The fingerprint of a classpath includes the last modification time of each of its entries,
+ * so a loader is replaced once the build writes new classes. As output directories must be
+ * walked to find this, their times are held until {@link #outputChanged()} is called.
+ */
+public class ModuleClassLoaderCache {
+
+    /**
+     * Logger for this class.
+     */
+    @NonNls
+    private static final Logger LOG = Logger.getLogger(ModuleClassLoaderCache.class);
+
+    /**
+     * The maximum number of class loaders to hold.
+     */
+    private static final int MAX_ENTRIES = 200;
+
+    private final Map<String, CachedClassLoader> entries = new LinkedHashMap<String, CachedClassLoader>(16, 0.75f, true) {
+        private static final long serialVersionUID = -2460285466376284761L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, CachedClassLoader> eldest) {
+            if (size() > MAX_ENTRIES) {
+                evict(eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private final Map<ClassLoader, CachedClassLoader> entriesByLoader = new IdentityHashMap<ClassLoader, CachedClassLoader>();
+
+    /**
+     * The fingerprint last used for each classpath, so a loader may be evicted once its
+     * classpath has been rebuilt.
+     */
+    private final Map<String, String> fingerprintsByClasspath = new HashMap<String, String>();
+
+    /**
+     * The last modification times of the output directories on the classpaths. This is guarded
+     * by its own lock, as the directories are walked outside of the lock on the cache.
+     */
+    private final Map<File, DirectoryTime> directoryTimes = new HashMap<File, DirectoryTime>();
+
+    /**
+     * Acquire a class loader for a classpath, creating one if none is cached. The loader must
+     * be handed back via {@link #release(ClassLoader)} once finished with.
+     *
+     * @param classpath         the classpath, in order.
+     * @param parent            the parent class loader.
+     * @param parentFingerprint a fingerprint of the parent class loader's classpath.
+     * @return the class loader.
+     */
+    public ClassLoader acquire(final List<URL> classpath,
+                               final ClassLoader parent,
+                               final String parentFingerprint) {
+        if (classpath == null) {
+            throw new IllegalArgumentException("Classpath is required");
+        }
+
+        // the output directories may take some time to walk, so other callers aren't held up
+        final String classpathDescription = describe(classpath, parentFingerprint);
+        final String fingerprint = AuditResultCache.fingerprint(classpathDescription
+                + '\n' + describeTimes(classpath));
+
+        return acquire(classpath, parent, classpathDescription, fingerprint);
+    }
+
+    private synchronized ClassLoader acquire(final List<URL> classpath,
+                                             final ClassLoader parent,
+                                             final String classpathDescription,
+                                             final String fingerprint) {
+        final String lastFingerprint = fingerprintsByClasspath.put(classpathDescription, fingerprint);
+        if (lastFingerprint != null && !lastFingerprint.equals(fingerprint)) {
+            final CachedClassLoader staleEntry = entries.remove(lastFingerprint);
+            if (staleEntry != null) {
+                LOG.debug("Classpath has been rebuilt; replacing class loader");
+                evict(staleEntry);
+            }
+        }
+
+        CachedClassLoader entry = entries.get(fingerprint);
+        if (entry == null || entry.classLoader.getParent() != parent) {
+            if (entry != null) {
+                entries.remove(fingerprint);
+                evict(entry);
+            }
+
+            entry = new CachedClassLoader(new URLClassLoader(classpath.toArray(new URL[classpath.size()]), parent),
+                    fingerprint);
+            entries.put(fingerprint, entry);
+            entriesByLoader.put(entry.classLoader, entry);
+        }
+
+        ++entry.referenceCount;
+        return entry.classLoader;
+    }
+
+    /**
+     * Hand back a class loader previously acquired.
+     *
+     * @param classLoader the class loader. May be null.
+     */
+    public synchronized void release(final ClassLoader classLoader) {
+        if (classLoader == null) {
+            return;
+        }
+
+        final CachedClassLoader entry = entriesByLoader.get(classLoader);
+        if (entry == null) {
+            return;
+        }
+
+        --entry.referenceCount;
+        if (entry.evicted && entry.referenceCount <= 0) {
+            close(entry);
+        }
+    }
+
+    /**
+     * Get the fingerprint of the classpath of a class loader previously acquired.
+     *
+     * @param classLoader the class loader. May be null.
+     * @return the fingerprint, or null if the class loader was not acquired from this cache.
+     */
+    public synchronized String fingerprintOf(final ClassLoader classLoader) {
+        if (classLoader == null) {
+            return null;
+        }
+
+        final CachedClassLoader entry = entriesByLoader.get(classLoader);
+        if (entry == null) {
+            return null;
+        }
+        return entry.fingerprint;
+    }
+
+    /**
+     * Note that the build may have written new classes, so the times of output directories
+     * are found again when a class loader is next acquired. Loaders for classpaths that have
+     * not changed are kept.
+     */
+    public void outputChanged() {
+        synchronized (directoryTimes) {
+            directoryTimes.clear();
+        }
+    }
+
+    /**
+     * Evict all cached class loaders, e.g. when the third-party classpath changes.
+     */
+    public synchronized void clear() {
+        fingerprintsByClasspath.clear();
+        outputChanged();
+
+        for (final Iterator<CachedClassLoader> i = entries.values().iterator(); i.hasNext();) {
+            final CachedClassLoader entry = i.next();
+            i.remove();
+            evict(entry);
+        }
+    }
+
+    private void evict(final CachedClassLoader entry) {
+        entry.evicted = true;
+        if (entry.referenceCount <= 0) {
+            close(entry);
+        }
+    }
+
+    private void close(final CachedClassLoader entry) {
+        entriesByLoader.remove(entry.classLoader);
+
+        // class loaders may only be closed explicitly from Java 7
+        if (entry.classLoader instanceof Closeable) {
+            try {
+                ((Closeable) entry.classLoader).close();
+            } catch (IOException e) {
+                LOG.debug("Could not close class loader", e);
+            }
+        }
+    }
+
+    private static String describe(final List<URL> classpath, final String parentFingerprint) {
+        final StringBuilder classpathDescription = new StringBuilder();
+        classpathDescription.append(parentFingerprint);
+        for (final URL url : classpath) {
+            classpathDescription.append('\n').append(url.toExternalForm());
+        }
+        return classpathDescription.toString();
+    }
+
+    private String describeTimes(final List<URL> classpath) {
+        final StringBuilder timesDescription = new StringBuilder();
+        for (final URL url : classpath) {
+            timesDescription.append(lastModified(url)).append(',');
+        }
+        return timesDescription.toString();
+    }
+
+    /**
+     * Get the last modification time of a classpath entry. For a directory, this is the
+     * latest time of any file beneath it.
+     *
+     * @param url the classpath entry.
+     * @return the time, or 0 if it cannot be found.
+     */
+    private long lastModified(final URL url) {
+        if (!"file".equals(url.getProtocol())) {
+            return 0L;
+        }
+
+        final File file = new File(url.getFile());
+        if (!file.isDirectory()) {
+            return file.lastModified();
+        }
+
+        DirectoryTime directoryTime;
+        synchronized (directoryTimes) {
+            directoryTime = directoryTimes.get(file);
+            if (directoryTime == null) {
+                directoryTime = new DirectoryTime(file);
+                directoryTimes.put(file, directoryTime);
+            }
+        }
+        return directoryTime.get();
+    }
+
+    private static long latestTimeBeneath(final File directory) {
+        long latestTime = directory.lastModified();
+
+        final File[] children = directory.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                if (child.isDirectory()) {
+                    latestTime = Math.max(latestTime, latestTimeBeneath(child));
+                } else {
+                    latestTime = Math.max(latestTime, child.lastModified());
+                }
+            }
+        }
+
+        return latestTime;
+    }
+
+    /**
+     * The last modification time of an output directory, found when first requested. Callers
+     * for the same directory wait for a single walk of it.
+     */
+    private static final class DirectoryTime {
+        private final File directory;
+        private long time;
+        private boolean known;
+
+        private DirectoryTime(final File directory) {
+            this.directory = directory;
+        }
+
+        private synchronized long get() {
+            if (!known) {
+                time = latestTimeBeneath(directory);
+                known = true;
+            }
+            return time;
+        }
+    }
+
+    private static final class CachedClassLoader {
+        private final ClassLoader classLoader;
+        private final String fingerprint;
+        private int referenceCount;
+        private boolean evicted;
+
+        private CachedClassLoader(final ClassLoader classLoader, final String fingerprint) {
+            this.classLoader = classLoader;
+            this.fingerprint = fingerprint;
+        }
+    }
+}
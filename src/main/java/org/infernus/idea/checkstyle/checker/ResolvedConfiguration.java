@@ -0,0 +1,150 @@
+package org.infernus.idea.checkstyle.checker;
+
+import com.puppycrawl.tools.checkstyle.ConfigurationLoader;
+import com.puppycrawl.tools.checkstyle.DefaultConfiguration;
+import com.puppycrawl.tools.checkstyle.api.CheckstyleException;
+import com.puppycrawl.tools.checkstyle.api.Configuration;
+import org.infernus.idea.checkstyle.model.ConfigurationLocation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The content of a configuration location, read once, and the configuration parsed from it.
+ * <p/>
+ * The configuration is parsed on first use and the parsed tree is held, so checkers built
+ * from an unchanged configuration do not parse it again. Each checker is given a copy of the
+ * tree, as the tree is modified when a checker is built.
+ */
+public class ResolvedConfiguration {
+
+    private final byte[] content;
+    private final Map<String, String> properties;
+    private final String fingerprint;
+
+    private Configuration configuration;
+
+    /**
+     * Create a resolved configuration.
+     *
+     * @param content    the content of the configuration.
+     * @param properties the properties the configuration is resolved with. May be null.
+     * @throws IOException if the properties cannot be encoded.
+     */
+    public ResolvedConfiguration(final byte[] content,
+                                 final Map<String, String> properties)
+            throws IOException {
+        if (content == null) {
+            throw new IllegalArgumentException("Content may not be null");
+        }
+
+        this.content = content;
+        if (properties != null) {
+            this.properties = new HashMap<String, String>(properties);
+        } else {
+            this.properties = new HashMap<String, String>();
+        }
+        this.fingerprint = CheckerFactory.configFingerprintOf(content, this.properties);
+    }
+
+    /**
+     * Read a configuration location.
+     *
+     * @param location the location.
+     * @return the resolved configuration.
+     * @throws IOException if the location cannot be read.
+     */
+    public static ResolvedConfiguration resolve(final ConfigurationLocation location)
+            throws IOException {
+        InputStream configurationInputStream = null;
+        try {
+            configurationInputStream = location.resolve();
+
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = configurationInputStream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+
+            // the properties are read after resolution, which adds any the configuration defines
+            return new ResolvedConfiguration(out.toByteArray(), location.getProperties());
+
+        } finally {
+            if (configurationInputStream != null) {
+                try {
+                    configurationInputStream.close();
+                } catch (IOException e) {
+                    // ignored
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the fingerprint of the content and properties of the configuration.
+     *
+     * @return the fingerprint.
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Get the properties the configuration is resolved with.
+     *
+     * @return the properties.
+     */
+    public Map<String, String> getProperties() {
+        return properties;
+    }
+
+    /**
+     * Get a copy of the parsed configuration, parsing it if this has not yet been done.
+     *
+     * @return a copy of the configuration, which the caller may modify.
+     * @throws CheckstyleException if the configuration cannot be parsed.
+     */
+    public Configuration copyConfiguration() throws CheckstyleException {
+        synchronized (this) {
+            if (configuration == null) {
+                configuration = ConfigurationLoader.loadConfiguration(new ByteArrayInputStream(content),
+                        new ListPropertyResolver(properties), true);
+            }
+        }
+
+        return copyOf(configuration);
+    }
+
+    private static Configuration copyOf(final Configuration source) throws CheckstyleException {
+        final DefaultConfiguration copy = new DefaultConfiguration(source.getName());
+
+        for (final String attributeName : source.getAttributeNames()) {
+            copy.addAttribute(attributeName, source.getAttribute(attributeName));
+        }
+
+        for (final Map.Entry<String, String> message : source.getMessages().entrySet()) {
+            copy.addMessage(message.getKey(), message.getValue());
+        }
+
+        for (final Configuration child : source.getChildren()) {
+            copy.addChild(copyOf(child));
+        }
+
+        return copy;
+    }
+
+    /**
+     * Do these configurations have the same content and properties?
+     *
+     * @param other the other configuration. May be null.
+     * @return true if the fingerprints match.
+     */
+    public boolean isSameAs(final ResolvedConfiguration other) {
+        return other != null && fingerprint.equals(other.fingerprint);
+    }
+}
@@ -40,6 +40,7 @@ public class ScanFilesThread extends AbstractCheckerThread {
         setRunning(true);
 
         try {
+            collectFiles();
             this.processFilesForModuleInfoAndScan();
 
         } catch (final Throwable e) {
@@ -0,0 +1,254 @@
+package org.infernus.idea.checkstyle.checker;
+
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.roots.ContentEntry;
+import com.intellij.openapi.roots.ModuleRootManager;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileAdapter;
+import com.intellij.openapi.vfs.VirtualFileEvent;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.VirtualFileMoveEvent;
+import com.intellij.openapi.vfs.VirtualFilePropertyEvent;
+import com.puppycrawl.tools.checkstyle.api.CheckstyleException;
+import com.puppycrawl.tools.checkstyle.api.FilterSet;
+import com.puppycrawl.tools.checkstyle.filters.SuppressionsLoader;
+import org.apache.log4j.Logger;
+import org.infernus.idea.checkstyle.model.ConfigurationLocation;
+import org.jetbrains.annotations.NonNls;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * A registry of the suppression files used by configurations.
+ * <p/>
+ * The location of a suppression file is resolved once for each module, and the parsed
+ * suppressions are shared by all checkers that use the file. Both are discarded when the
+ * VFS reports a change to a file with the name of a suppression file.
+ */
+public final class SuppressionFileRegistry {
+
+    /**
+     * Logger for this class.
+     */
+    @NonNls
+    private static final Logger LOG = Logger.getLogger(SuppressionFileRegistry.class);
+
+    private static SuppressionFileRegistry instance;
+
+    /**
+     * Resolved suppression files, keyed on module (or null) and then on the name and base
+     * directory of the file. Files that could not be found are held as null.
+     */
+    private final Map<Module, Map<String, File>> resolvedFiles = new WeakHashMap<Module, Map<String, File>>();
+    private final Map<String, File> resolvedProjectFiles = new HashMap<String, File>();
+
+    private final Map<String, CachedSuppressions> suppressions = new HashMap<String, CachedSuppressions>();
+
+    /**
+     * The names of all suppression files requested, used to filter VFS events.
+     */
+    private final Set<String> watchedNames = new HashSet<String>();
+
+    private SuppressionFileRegistry() {
+    }
+
+    /**
+     * Get the registry, watching the VFS for changes on first use.
+     *
+     * @return the registry.
+     */
+    public static synchronized SuppressionFileRegistry getInstance() {
+        if (instance == null) {
+            instance = new SuppressionFileRegistry();
+            instance.watchFileSystem();
+        }
+        return instance;
+    }
+
+    private void watchFileSystem() {
+        try {
+            VirtualFileManager.getInstance().addVirtualFileListener(new SuppressionFileListener());
+
+        } catch (RuntimeException e) {
+            // outside of the IDE, e.g. in tests; the cached files are still checked for modification
+            LOG.debug("Could not watch file system for suppression file changes", e);
+        }
+    }
+
+    /**
+     * Find a suppression file.
+     *
+     * @param fileName the file name, as given in the configuration.
+     * @param location the location of the configuration.
+     * @param module   the current module. May be null.
+     * @return the suppression file, or null if it cannot be found.
+     */
+    public synchronized File resolve(final String fileName,
+                                     final ConfigurationLocation location,
+                                     final Module module) {
+        final Map<String, File> filesForModule;
+        if (module != null) {
+            Map<String, File> existingFilesForModule = resolvedFiles.get(module);
+            if (existingFilesForModule == null) {
+                existingFilesForModule = new HashMap<String, File>();
+                resolvedFiles.put(module, existingFilesForModule);
+            }
+            filesForModule = existingFilesForModule;
+        } else {
+            filesForModule = resolvedProjectFiles;
+        }
+
+        final String key = fileName + File.pathSeparator + location.getBaseDir();
+        if (filesForModule.containsKey(key)) {
+            return filesForModule.get(key);
+        }
+
+        watchedNames.add(new File(fileName).getName());
+
+        final File suppressionFile = findSuppressionFile(fileName, location, module);
+        filesForModule.put(key, suppressionFile);
+        return suppressionFile;
+    }
+
+    /**
+     * Get the suppressions defined in a file, parsing the file if it has not been parsed
+     * or has been modified since.
+     *
+     * @param suppressionFile the suppression file.
+     * @return the suppressions.
+     * @throws CheckstyleException if the file cannot be parsed.
+     */
+    public FilterSet getSuppressions(final File suppressionFile) throws CheckstyleException {
+        final String path = suppressionFile.getAbsolutePath();
+        final long stamp = suppressionFile.lastModified() * 31 + suppressionFile.length();
+
+        synchronized (this) {
+            final CachedSuppressions cachedSuppressions = suppressions.get(path);
+            if (cachedSuppressions != null && cachedSuppressions.stamp == stamp) {
+                return cachedSuppressions.filters;
+            }
+            watchedNames.add(suppressionFile.getName());
+        }
+
+        // parsed outside the lock; a concurrent parse of the same file is harmless
+        final FilterSet filters = SuppressionsLoader.loadSuppressions(path);
+
+        synchronized (this) {
+            suppressions.put(path, new CachedSuppressions(stamp, filters));
+        }
+        return filters;
+    }
+
+    /**
+     * Discard all resolved and parsed suppression files.
+     */
+    public synchronized void invalidate() {
+        resolvedFiles.clear();
+        resolvedProjectFiles.clear();
+        suppressions.clear();
+    }
+
+    private void fileChanged(final String fileName) {
+        final boolean watched;
+        synchronized (this) {
+            watched = watchedNames.contains(fileName);
+        }
+
+        if (watched) {
+            LOG.debug("Suppression file changed: " + fileName);
+            invalidate();
+        }
+    }
+
+    private File findSuppressionFile(final String fileName,
+                                     final ConfigurationLocation location,
+                                     final Module module) {
+        // check as given
+        if (new File(fileName).exists()) {
+            return new File(fileName);
+        }
+
+        // check relative to config
+        if (location.getBaseDir() != null) {
+            final File configFileRelativePath = new File(location.getBaseDir(), fileName);
+            if (configFileRelativePath.exists()) {
+                return configFileRelativePath;
+            }
+        }
+
+        if (module != null) {
+            final ModuleRootManager rootManager = ModuleRootManager.getInstance(module);
+
+            // check module content roots
+            for (final ContentEntry contentEntry : rootManager.getContentEntries()) {
+                final File contentEntryPath = new File(contentEntry.getFile().getPath(), fileName);
+                if (contentEntryPath.exists()) {
+                    return contentEntryPath;
+                }
+            }
+
+            // check module file
+            if (module.getModuleFile() != null) {
+                final File moduleRelativePath = new File(module.getModuleFile().getParent().getPath(), fileName);
+                if (moduleRelativePath.exists()) {
+                    return moduleRelativePath;
+                }
+            }
+
+            // check project base dir
+            if (module.getProject().getBaseDir() != null) {
+                final File projectRelativePath = new File(module.getProject().getBaseDir().getPath(), fileName);
+                if (projectRelativePath.exists()) {
+                    return projectRelativePath;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static final class CachedSuppressions {
+        private final long stamp;
+        private final FilterSet filters;
+
+        private CachedSuppressions(final long stamp, final FilterSet filters) {
+            this.stamp = stamp;
+            this.filters = filters;
+        }
+    }
+
+    private class SuppressionFileListener extends VirtualFileAdapter {
+        @Override
+        public void contentsChanged(final VirtualFileEvent event) {
+            fileChanged(event.getFileName());
+        }
+
+        @Override
+        public void fileCreated(final VirtualFileEvent event) {
+            fileChanged(event.getFileName());
+        }
+
+        @Override
+        public void fileDeleted(final VirtualFileEvent event) {
+            fileChanged(event.getFileName());
+        }
+
+        @Override
+        public void fileMoved(final VirtualFileMoveEvent event) {
+            fileChanged(event.getFileName());
+        }
+
+        @Override
+        public void propertyChanged(final VirtualFilePropertyEvent event) {
+            if (VirtualFile.PROP_NAME.equals(event.getPropertyName())) {
+                fileChanged(String.valueOf(event.getOldValue()));
+                fileChanged(String.valueOf(event.getNewValue()));
+            }
+        }
+    }
+}
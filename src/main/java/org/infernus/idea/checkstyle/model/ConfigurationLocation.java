@@ -6,6 +6,8 @@ import org.jdom.Document;
 import org.jdom.Element;
 import org.jdom.input.SAXBuilder;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -19,7 +21,7 @@ import java.util.Map;
 /**
  * Bean encapsulating a configuration source.
  */
-public abstract class ConfigurationLocation {
+public abstract class ConfigurationLocation implements Cloneable {
 
     private static final Logger LOG = Logger.getLogger(ConfigurationLocation.class);
 
@@ -80,11 +82,11 @@ public abstract class ConfigurationLocation {
         }
     }
 
-    public Map<String, String> getProperties() {
-        return Collections.unmodifiableMap(properties);
+    public synchronized Map<String, String> getProperties() {
+        return Collections.unmodifiableMap(new HashMap<String, String>(properties));
     }
 
-    public void setProperties(final Map<String, String> newProperties) {
+    public synchronized void setProperties(final Map<String, String> newProperties) {
         properties.clear();
 
         if (newProperties == null) {
@@ -94,6 +96,22 @@ public abstract class ConfigurationLocation {
         properties.putAll(newProperties);
     }
 
+    /**
+     * Create a copy of this location which may be edited without affecting this location.
+     *
+     * @return the copy.
+     */
+    public synchronized ConfigurationLocation copy() {
+        try {
+            final ConfigurationLocation copy = (ConfigurationLocation) clone();
+            copy.properties = new HashMap<String, String>(properties);
+            return copy;
+
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("Location could not be copied: " + this, e);
+        }
+    }
+
     /**
      * Extract all settable properties from the given configuration file.
      *
@@ -160,16 +178,17 @@ public abstract class ConfigurationLocation {
     /**
      * Resolve this location to a file.
      * <p/>
+     * The file is read once, and the stream returned is over the content read.
      *
      * @return the file to load.
      * @throws IOException if the file cannot be loaded.
      */
-    public InputStream resolve() throws IOException {
-        InputStream is = resolveFile();
+    public synchronized InputStream resolve() throws IOException {
+        final byte[] content = readFully(resolveFile());
 
         if (!propertiesCheckedThisSession) {
             // update property definitions
-            final List<String> propertiesInFile = extractProperties(is);
+            final List<String> propertiesInFile = extractProperties(new ByteArrayInputStream(content));
 
             // merge properties from files
             for (final String propertyName : propertiesInFile) {
@@ -186,16 +205,29 @@ public abstract class ConfigurationLocation {
                 }
             }
 
+            propertiesCheckedThisSession = true;
+        }
+
+        return new ByteArrayInputStream(content);
+    }
+
+    private static byte[] readFully(final InputStream inputStream) throws IOException {
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+
+        } finally {
             try {
-                is.reset();
+                inputStream.close();
             } catch (IOException e) {
-                is = resolveFile(); // JAR IS don't support this, for instance
+                // ignored
             }
-
-            propertiesCheckedThisSession = true;
         }
-
-        return is;
     }
 
     /**
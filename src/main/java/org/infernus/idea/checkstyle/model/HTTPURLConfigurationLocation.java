@@ -1,80 +1,289 @@
 package org.infernus.idea.checkstyle.model;
 
+import com.intellij.openapi.application.PathManager;
 import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NonNls;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.io.Writer;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
 
 /**
  * A configuration file accessible via a HTTP URL.
+ * <p/>
+ * The last copy of the file retrieved is held in memory and on disk. It is reused without
+ * contacting the server until it is older than the maximum age, and is then revalidated with
+ * a conditional request. If the server cannot be reached, the last copy is used.
  */
 public class HTTPURLConfigurationLocation extends ConfigurationLocation {
 
     @NonNls
     private static final Logger LOG = Logger.getLogger(HTTPURLConfigurationLocation.class);
 
+    /**
+     * The system property used to configure the maximum age of a cached copy, in seconds.
+     */
+    @NonNls
+    private static final String MAX_AGE_PROPERTY = "checkstyle-idea.remote-configuration.max-age";
+
+    /**
+     * The default maximum age of a cached copy before it is revalidated, in seconds.
+     */
+    private static final long DEFAULT_MAX_AGE = 60;
+
+    /**
+     * The time to wait when connecting to or reading from the server, in ms.
+     */
+    private static final int TIMEOUT = 10000;
+
+    @NonNls
+    private static final String CACHE_DIRECTORY = "checkstyle-idea" + File.separator + "remote-configurations";
+
+    private static final int CACHE_VERSION = 1;
+
+    private final File cacheDirectory;
+
+    private byte[] cachedContent;
+    private String cachedLocation;
+    private String entityTag;
+    private String lastModified;
+    private long lastValidated;
+
     /**
      * Create a new URL configuration.
      */
     HTTPURLConfigurationLocation() {
+        this(null);
+    }
+
+    /**
+     * Create a new URL configuration.
+     *
+     * @param cacheDirectory the directory to hold copies of retrieved files in, or null to use
+     *                       the IDE's system directory.
+     */
+    HTTPURLConfigurationLocation(final File cacheDirectory) {
         super(ConfigurationType.HTTP_URL);
+
+        this.cacheDirectory = cacheDirectory;
     }
 
     /**
      * {@inheritDoc}
+     * <p/>
+     * The stream returned supports {@link InputStream#reset()}, so the file is retrieved
+     * only once per resolution.
      */
-    protected InputStream resolveFile() throws IOException {
-        Reader reader = null;
-        Writer writer = null;
+    protected synchronized InputStream resolveFile() throws IOException {
+        final String location = getLocation();
+        if (cachedContent == null || !location.equals(cachedLocation)) {
+            readCacheFile(location);
+        }
+
+        if (cachedContent != null && System.currentTimeMillis() - lastValidated < getMaxAge()) {
+            return new ByteArrayInputStream(cachedContent);
+        }
+
         try {
-            final URLConnection urlConnection = new URL(getLocation()).openConnection();
-            urlConnection.setDoInput(true);
-            urlConnection.setDoOutput(false);
-
-            final File tempFile = File.createTempFile("checkStyle", ".xml");
-            tempFile.deleteOnExit();
-            writer = new BufferedWriter(new FileWriter(tempFile));
-
-            urlConnection.connect();
-            reader = new BufferedReader(new InputStreamReader(urlConnection.getInputStream()));
-            int readChar;
-            while ((readChar = reader.read()) != -1) {
-                writer.write(readChar);
+            retrieve(location);
+
+        } catch (IOException e) {
+            if (cachedContent == null) {
+                LOG.error("Couldn't read URL: " + location, e);
+                throw e;
             }
 
-            writer.flush();
-            return new FileInputStream(tempFile);
+            LOG.warn("Couldn't read URL: " + location + "; using the last copy retrieved", e);
+            // don't retry until the copy would next need revalidation
+            lastValidated = System.currentTimeMillis();
+        }
 
-        } catch (IOException e) {
-            LOG.error("Couldn't read URL: " + getLocation(), e);
-            throw e;
+        return new ByteArrayInputStream(cachedContent);
+    }
+
+    private static long getMaxAge() {
+        return Long.getLong(MAX_AGE_PROPERTY, DEFAULT_MAX_AGE) * 1000;
+    }
+
+    /**
+     * Retrieve the file from the server, if it has changed since the cached copy was retrieved.
+     *
+     * @param location the URL of the file.
+     * @throws IOException if the file cannot be retrieved.
+     */
+    private void retrieve(final String location) throws IOException {
+        final URLConnection urlConnection = new URL(location).openConnection();
+        urlConnection.setDoInput(true);
+        urlConnection.setDoOutput(false);
+        urlConnection.setConnectTimeout(TIMEOUT);
+        urlConnection.setReadTimeout(TIMEOUT);
+
+        final boolean conditional = cachedContent != null && location.equals(cachedLocation);
+        if (conditional && entityTag != null) {
+            urlConnection.setRequestProperty("If-None-Match", entityTag);
+        }
+        if (conditional && lastModified != null) {
+            urlConnection.setRequestProperty("If-Modified-Since", lastModified);
+        }
+
+        urlConnection.connect();
+
+        if (conditional && urlConnection instanceof HttpURLConnection
+                && ((HttpURLConnection) urlConnection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            LOG.debug("Configuration is unchanged: " + location);
+            ((HttpURLConnection) urlConnection).disconnect();
+            lastValidated = System.currentTimeMillis();
+            return;
+        }
+
+        final InputStream inputStream = urlConnection.getInputStream();
+        try {
+            final ByteArrayOutputStream content = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                content.write(buffer, 0, read);
+            }
+
+            cachedContent = content.toByteArray();
+            cachedLocation = location;
+            entityTag = urlConnection.getHeaderField("ETag");
+            lastModified = urlConnection.getHeaderField("Last-Modified");
+            lastValidated = System.currentTimeMillis();
+
+        } finally {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+
+        writeCacheFile();
+    }
+
+    private File getCacheFile(final String location) {
+        File directory = cacheDirectory;
+        if (directory == null) {
+            directory = new File(PathManager.getSystemPath(), CACHE_DIRECTORY);
+        }
+        return new File(directory, Integer.toHexString(location.hashCode()) + ".dat");
+    }
+
+    /**
+     * Read the copy of the file retrieved in an earlier session, if any. The copy will
+     * be revalidated before it is used.
+     *
+     * @param location the URL of the file.
+     */
+    private void readCacheFile(final String location) {
+        cachedContent = null;
+        cachedLocation = null;
+        entityTag = null;
+        lastModified = null;
+        lastValidated = 0;
+
+        DataInputStream in = null;
+        try {
+            final File cacheFile = getCacheFile(location);
+            if (!cacheFile.exists()) {
+                return;
+            }
+
+            in = new DataInputStream(new FileInputStream(cacheFile));
+            if (in.readInt() != CACHE_VERSION || !location.equals(in.readUTF())) {
+                return;
+            }
+
+            final String cachedEntityTag = readNullableString(in);
+            final String cachedLastModified = readNullableString(in);
+            final byte[] content = new byte[in.readInt()];
+            in.readFully(content);
+
+            cachedContent = content;
+            cachedLocation = location;
+            entityTag = cachedEntityTag;
+            lastModified = cachedLastModified;
+
+        } catch (Exception e) {
+            LOG.debug("Couldn't read cached copy of " + location, e);
 
         } finally {
-            if (reader != null) {
+            if (in != null) {
                 try {
-                    reader.close();
+                    in.close();
                 } catch (IOException e) {
                     // ignore
                 }
             }
-            if (writer != null) {
+        }
+    }
+
+    private void writeCacheFile() {
+        final File cacheFile;
+        try {
+            cacheFile = getCacheFile(cachedLocation);
+        } catch (Exception e) {
+            LOG.debug("Couldn't find cache directory", e);
+            return;
+        }
+
+        final File tempFile = new File(cacheFile.getParentFile(), cacheFile.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            if (!cacheFile.getParentFile().exists() && !cacheFile.getParentFile().mkdirs()) {
+                throw new IOException("Couldn't create directory " + cacheFile.getParent());
+            }
+
+            out = new DataOutputStream(new FileOutputStream(tempFile));
+            out.writeInt(CACHE_VERSION);
+            out.writeUTF(cachedLocation);
+            writeNullableString(out, entityTag);
+            writeNullableString(out, lastModified);
+            out.writeInt(cachedContent.length);
+            out.write(cachedContent);
+            out.close();
+            out = null;
+
+            if (cacheFile.exists() && !cacheFile.delete() || !tempFile.renameTo(cacheFile)) {
+                throw new IOException("Couldn't replace " + cacheFile.getAbsolutePath());
+            }
+
+        } catch (IOException e) {
+            LOG.warn("Couldn't cache copy of " + cachedLocation, e);
+            tempFile.delete();
+
+        } finally {
+            if (out != null) {
                 try {
-                    writer.close();
+                    out.close();
                 } catch (IOException e) {
                     // ignore
                 }
             }
         }
     }
+
+    private static String readNullableString(final DataInputStream in) throws IOException {
+        if (in.readBoolean()) {
+            return in.readUTF();
+        }
+        return null;
+    }
+
+    private static void writeNullableString(final DataOutputStream out, final String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
 }
@@ -0,0 +1,213 @@
+package org.infernus.idea.checkstyle.toolwindow;
+
+import com.puppycrawl.tools.checkstyle.api.SeverityLevel;
+
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.TreeNode;
+import java.util.Enumeration;
+import java.util.Vector;
+
+/**
+ * Tree node for the results of a single file.
+ * <p/>
+ * The problems are held as {@link FileResults}, and a node is only created for a problem
+ * when the tree asks for it, i.e. when this node is expanded. The number of problems of each
+ * severity is counted up front, so changing the displayed severities does not require the
+ * problems to be examined.
+ */
+public class FileResultTreeNode extends DefaultMutableTreeNode {
+
+    private static final long serialVersionUID = -1769306738412385218L;
+
+    private static final int NO_SEVERITY = FileResults.NO_SEVERITY;
+
+    private final FileResults results;
+    private final int[] severityCounts = new int[NO_SEVERITY + 1];
+    private final boolean[] visibleSeverities = new boolean[NO_SEVERITY + 1];
+
+    private DefaultMutableTreeNode[] problemNodes;
+    private int[] visibleProblems;
+    private int visibleCount;
+
+    /**
+     * Create a node for the problems in a file.
+     *
+     * @param results the problems in the file.
+     * @param levels  the severities to display.
+     */
+    public FileResultTreeNode(final FileResults results,
+                              final SeverityLevel... levels) {
+        if (results == null) {
+            throw new IllegalArgumentException("Results may not be null");
+        }
+
+        this.results = results;
+
+        for (int i = 0; i < results.getProblemCount(); ++i) {
+            ++severityCounts[results.getSeverityIndex(i)];
+        }
+
+        setUserObject(new ResultTreeNode(results.getFileName(), results.getProblemCount()));
+        setVisibleLevels(levels);
+    }
+
+    /**
+     * Get the problems the node represents.
+     *
+     * @return the problems.
+     */
+    public FileResults getResults() {
+        return results;
+    }
+
+    /**
+     * Get the total number of problems in the file, regardless of severity.
+     *
+     * @return the number of problems.
+     */
+    public int getProblemCount() {
+        return results.getProblemCount();
+    }
+
+    /**
+     * Display only problems of the given severities.
+     *
+     * @param levels the levels. Null is treated as 'none'.
+     * @return true if the displayed problems have changed.
+     */
+    public boolean setVisibleLevels(final SeverityLevel... levels) {
+        boolean changed = false;
+        int newVisibleCount = 0;
+
+        for (int severityIndex = 0; severityIndex < visibleSeverities.length; ++severityIndex) {
+            final boolean visible = isIncluded(levels, severityIndex);
+            if (visible) {
+                newVisibleCount += severityCounts[severityIndex];
+            }
+
+            if (visible != visibleSeverities[severityIndex]) {
+                visibleSeverities[severityIndex] = visible;
+                if (severityCounts[severityIndex] > 0) {
+                    changed = true;
+                }
+            }
+        }
+
+        visibleCount = newVisibleCount;
+        if (changed) {
+            visibleProblems = null;
+        }
+        return changed;
+    }
+
+    private static boolean isIncluded(final SeverityLevel[] levels, final int severityIndex) {
+        if (levels == null) {
+            return false;
+        }
+
+        for (final SeverityLevel level : levels) {
+            if (level == null && severityIndex == NO_SEVERITY
+                    || level != null && level.ordinal() == severityIndex) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the indices of the displayed problems, calculating them if required.
+     *
+     * @return the indices of the displayed problems, or null if all problems are displayed.
+     */
+    private int[] getVisibleProblems() {
+        if (visibleCount == results.getProblemCount()) {
+            return null;
+        }
+
+        if (visibleProblems == null) {
+            visibleProblems = new int[visibleCount];
+            int visibleIndex = 0;
+            for (int i = 0; i < results.getProblemCount(); ++i) {
+                if (visibleSeverities[results.getSeverityIndex(i)]) {
+                    visibleProblems[visibleIndex++] = i;
+                }
+            }
+        }
+        return visibleProblems;
+    }
+
+    private DefaultMutableTreeNode getProblemNode(final int problemIndex) {
+        if (problemNodes == null) {
+            problemNodes = new DefaultMutableTreeNode[results.getProblemCount()];
+        }
+
+        if (problemNodes[problemIndex] == null) {
+            final DefaultMutableTreeNode problemNode = new DefaultMutableTreeNode(
+                    new ResultTreeNode(results, problemIndex), false);
+            problemNode.setParent(this);
+            problemNodes[problemIndex] = problemNode;
+        }
+        return problemNodes[problemIndex];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getChildCount() {
+        return visibleCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TreeNode getChildAt(final int index) {
+        if (index < 0 || index >= visibleCount) {
+            throw new ArrayIndexOutOfBoundsException("Invalid index: " + index);
+        }
+
+        final int[] visibleIndices = getVisibleProblems();
+        if (visibleIndices == null) {
+            return getProblemNode(index);
+        }
+        return getProblemNode(visibleIndices[index]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getIndex(final TreeNode node) {
+        if (node == null) {
+            throw new IllegalArgumentException("Node may not be null");
+        }
+        if (problemNodes == null) {
+            return -1;
+        }
+
+        int visibleIndex = 0;
+        for (int i = 0; i < results.getProblemCount(); ++i) {
+            final boolean visible = visibleSeverities[results.getSeverityIndex(i)];
+            if (problemNodes[i] == node) {
+                return visible ? visibleIndex : -1;
+            }
+            if (visible) {
+                ++visibleIndex;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Enumeration children() {
+        final Vector<TreeNode> visibleChildren = new Vector<TreeNode>(visibleCount);
+        for (int i = 0; i < visibleCount; ++i) {
+            visibleChildren.add(getChildAt(i));
+        }
+        return visibleChildren.elements();
+    }
+}
@@ -0,0 +1,203 @@
+package org.infernus.idea.checkstyle.toolwindow;
+
+import com.intellij.codeInspection.ProblemDescriptor;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.puppycrawl.tools.checkstyle.api.SeverityLevel;
+import org.infernus.idea.checkstyle.util.ExtendedProblemDescriptor;
+import org.infernus.idea.checkstyle.util.MessageTable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The problems found in a single file, in the form held by the tool window.
+ * <p/>
+ * Problem descriptors refer to the PSI elements they were raised against, and so keep
+ * the PSI of the whole file in memory. The tool window only needs the position, severity
+ * and message of each problem, so these are copied into arrays and the file is held as a
+ * virtual file, which is only opened when a problem is navigated to. The messages are taken
+ * from the {@link MessageTable}, so results with the same message share it.
+ */
+public final class FileResults {
+
+    /**
+     * The severity index used for problems without a severity.
+     */
+    public static final int NO_SEVERITY = SeverityLevel.values().length;
+
+    /**
+     * The column used for problems without a column.
+     */
+    public static final int NO_COLUMN = -1;
+
+    private static final SeverityLevel[] SEVERITIES = SeverityLevel.values();
+
+    private final VirtualFile file;
+    private final String fileName;
+    private final int[] lines;
+    private final int[] columns;
+    private final byte[] severities;
+    private final String[] messages;
+
+    /**
+     * Copy the problems found in a file.
+     *
+     * @param psiFile  the file.
+     * @param problems the problems in the file. May be null.
+     */
+    public FileResults(final PsiFile psiFile,
+                       final List<ProblemDescriptor> problems) {
+        if (psiFile == null) {
+            throw new IllegalArgumentException("File may not be null");
+        }
+
+        this.file = psiFile.getVirtualFile();
+        this.fileName = psiFile.getName();
+
+        final int problemCount;
+        if (problems != null) {
+            problemCount = problems.size();
+        } else {
+            problemCount = 0;
+        }
+
+        lines = new int[problemCount];
+        columns = new int[problemCount];
+        severities = new byte[problemCount];
+        messages = new String[problemCount];
+
+        for (int i = 0; i < problemCount; ++i) {
+            final ProblemDescriptor problem = problems.get(i);
+            messages[i] = MessageTable.intern(problem.getDescriptionTemplate());
+
+            if (problem instanceof ExtendedProblemDescriptor) {
+                final ExtendedProblemDescriptor extendedProblem = (ExtendedProblemDescriptor) problem;
+                lines[i] = extendedProblem.getLine();
+                columns[i] = extendedProblem.getColumn();
+                severities[i] = (byte) extendedProblem.getSeverity().ordinal();
+
+            } else {
+                lines[i] = problem.getLineNumber();
+                columns[i] = NO_COLUMN;
+                severities[i] = (byte) NO_SEVERITY;
+            }
+        }
+    }
+
+    /**
+     * Create the results for a file from the details of its problems.
+     *
+     * @param file       the file, or null if the file does not exist outside of the editor.
+     * @param fileName   the name of the file.
+     * @param lines      the line of each problem.
+     * @param columns    the column of each problem, or {@link #NO_COLUMN}.
+     * @param severities the severity index of each problem, or {@link #NO_SEVERITY}.
+     * @param messages   the message of each problem.
+     */
+    FileResults(final VirtualFile file,
+                final String fileName,
+                final int[] lines,
+                final int[] columns,
+                final byte[] severities,
+                final String[] messages) {
+        if (fileName == null) {
+            throw new IllegalArgumentException("File name may not be null");
+        }
+        if (lines.length != messages.length || columns.length != messages.length
+                || severities.length != messages.length) {
+            throw new IllegalArgumentException("Problem details must be of the same length");
+        }
+
+        this.file = file;
+        this.fileName = fileName;
+        this.lines = lines;
+        this.columns = columns;
+        this.severities = severities;
+        this.messages = new String[messages.length];
+        for (int i = 0; i < messages.length; ++i) {
+            this.messages[i] = MessageTable.intern(messages[i]);
+        }
+    }
+
+    /**
+     * Copy the results of a scan.
+     *
+     * @param results the problems found in each file. May be null.
+     * @return the results, in the iteration order of the map.
+     */
+    public static List<FileResults> copyOf(final Map<PsiFile, List<ProblemDescriptor>> results) {
+        final List<FileResults> fileResults = new ArrayList<FileResults>();
+        if (results != null) {
+            for (final Map.Entry<PsiFile, List<ProblemDescriptor>> result : results.entrySet()) {
+                fileResults.add(new FileResults(result.getKey(), result.getValue()));
+            }
+        }
+        return fileResults;
+    }
+
+    /**
+     * Get the file the problems were found in.
+     *
+     * @return the file, or null if the file does not exist outside of the editor.
+     */
+    public VirtualFile getFile() {
+        return file;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public int getProblemCount() {
+        return messages.length;
+    }
+
+    /**
+     * Get the line of a problem, as reported by CheckStyle where known.
+     *
+     * @param problemIndex the index of the problem.
+     * @return the line, starting from 1.
+     */
+    public int getLine(final int problemIndex) {
+        return lines[problemIndex];
+    }
+
+    /**
+     * Get the column of a problem.
+     *
+     * @param problemIndex the index of the problem.
+     * @return the column, or {@link #NO_COLUMN} if not known.
+     */
+    public int getColumn(final int problemIndex) {
+        return columns[problemIndex];
+    }
+
+    /**
+     * Get the severity index of a problem.
+     *
+     * @param problemIndex the index of the problem.
+     * @return the ordinal of the severity, or {@link #NO_SEVERITY} if it has none.
+     */
+    public int getSeverityIndex(final int problemIndex) {
+        return severities[problemIndex];
+    }
+
+    /**
+     * Get the severity of a problem.
+     *
+     * @param problemIndex the index of the problem.
+     * @return the severity, or null if the problem has none.
+     */
+    public SeverityLevel getSeverity(final int problemIndex) {
+        if (severities[problemIndex] == NO_SEVERITY) {
+            return null;
+        }
+        return SEVERITIES[severities[problemIndex]];
+    }
+
+    public String getMessage(final int problemIndex) {
+        return messages[problemIndex];
+    }
+}
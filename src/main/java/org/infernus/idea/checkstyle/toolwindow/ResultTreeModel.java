@@ -1,7 +1,5 @@
 package org.infernus.idea.checkstyle.toolwindow;
 
-import com.intellij.codeInspection.ProblemDescriptor;
-import com.intellij.psi.PsiFile;
 import com.puppycrawl.tools.checkstyle.api.SeverityLevel;
 import org.infernus.idea.checkstyle.CheckStyleConstants;
 
@@ -9,7 +7,8 @@ import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.TreeNode;
 import java.text.MessageFormat;
-import java.util.*;
+import java.util.List;
+import java.util.ResourceBundle;
 
 /**
  * Tree model for the scan results.
@@ -20,6 +19,11 @@ public class ResultTreeModel extends DefaultTreeModel {
 
     private final DefaultMutableTreeNode visibleRootNode;
 
+    /**
+     * The number of problems displayed.
+     */
+    private int itemCount;
+
     /**
      * Create an empty result tree.
      */
@@ -37,7 +41,7 @@ public class ResultTreeModel extends DefaultTreeModel {
      *
      * @param results the model.
      */
-    public ResultTreeModel(final Map<PsiFile, List<ProblemDescriptor>> results) {
+    public ResultTreeModel(final List<FileResults> results) {
         this();
 
         setModel(results);
@@ -48,6 +52,7 @@ public class ResultTreeModel extends DefaultTreeModel {
      */
     public void clear() {
         visibleRootNode.removeAllChildren();
+        itemCount = 0;
         nodeStructureChanged(visibleRootNode);
     }
 
@@ -102,57 +107,23 @@ public class ResultTreeModel extends DefaultTreeModel {
      * @param levels the levels. Null is treated as 'none'.
      */
     public void filter(final SeverityLevel... levels) {
-        filter(true, levels);
-    }
-
-    private void filter(final boolean sendEvents, final SeverityLevel... levels) {
-        final Set<TogglableTreeNode> changedNodes = new HashSet<TogglableTreeNode>();
-
         for (int fileIndex = 0; fileIndex < visibleRootNode.getChildCount(); ++fileIndex) {
-            final TogglableTreeNode fileNode = (TogglableTreeNode) visibleRootNode.getChildAt(fileIndex);
-
-            for (final TogglableTreeNode problemNode : fileNode.getAllChildren()) {
-                final ResultTreeNode result = (ResultTreeNode) problemNode.getUserObject();
-
-                final boolean currentVisible = problemNode.isVisible();
-                final boolean desiredVisible = levels != null && contains(levels, result.getSeverity());
-                if (currentVisible != desiredVisible) {
-                    problemNode.setVisible(desiredVisible);
-
-                    changedNodes.add(fileNode);
-                }
-            }
-        }
+            final FileResultTreeNode fileNode = (FileResultTreeNode) visibleRootNode.getChildAt(fileIndex);
 
-        if (sendEvents) {
-            for (final TogglableTreeNode node : changedNodes) {
-                nodeStructureChanged(node);
+            // the file nodes count their problems by severity, so this does not touch the problems
+            if (fileNode.setVisibleLevels(levels)) {
+                nodeStructureChanged(fileNode);
             }
         }
     }
 
-    /*
-     * This is a port from commons-lang 2.4, in order to get around the absence of commons-lang in
-     * some packages of IDEA 7.x.
+    /**
+     * Get the number of problems in the tree, regardless of severity.
+     *
+     * @return the number of problems.
      */
-    private boolean contains(final Object[] array, final Object objectToFind) {
-        if (array == null) {
-            return false;
-        }
-        if (objectToFind == null) {
-            for (int i = 0; i < array.length; i++) {
-                if (array[i] == null) {
-                    return true;
-                }
-            }
-        } else {
-            for (int i = 0; i < array.length; i++) {
-                if (objectToFind.equals(array[i])) {
-                    return true;
-                }
-            }
-        }
-        return false;
+    public int getProblemCount() {
+        return itemCount;
     }
 
     /**
@@ -160,7 +131,7 @@ public class ResultTreeModel extends DefaultTreeModel {
      *
      * @param results the model.
      */
-    public void setModel(final Map<PsiFile, List<ProblemDescriptor>> results) {
+    public void setModel(final List<FileResults> results) {
         setModel(results, SeverityLevel.ERROR, SeverityLevel.WARNING, SeverityLevel.INFO);
     }
 
@@ -170,48 +141,67 @@ public class ResultTreeModel extends DefaultTreeModel {
      * @param results the model.
      * @param levels  the levels to display.
      */
-    public void setModel(final Map<PsiFile, List<ProblemDescriptor>> results,
+    public void setModel(final List<FileResults> results,
                          final SeverityLevel... levels) {
         visibleRootNode.removeAllChildren();
+        itemCount = 0;
+
+        if (results != null) {
+            for (final FileResults fileResults : results) {
+                visibleRootNode.add(createFileNode(fileResults, levels));
+            }
+        }
 
-        final ResourceBundle resources = ResourceBundle.getBundle(
-                CheckStyleConstants.RESOURCE_BUNDLE);
+        showResultsSummary();
+        nodeStructureChanged(visibleRootNode);
+    }
+
+    /**
+     * Add results to those displayed, e.g. as a scan progresses.
+     * <p/>
+     * The new nodes are announced with a single insertion event, rather than by reloading
+     * the tree.
+     *
+     * @param results the results to add.
+     * @param levels  the levels to display.
+     */
+    public void addResults(final List<FileResults> results,
+                           final SeverityLevel... levels) {
+        if (results == null || results.isEmpty()) {
+            return;
+        }
+
+        final int[] insertedIndices = new int[results.size()];
+        int insertedCount = 0;
+        for (final FileResults fileResults : results) {
+            visibleRootNode.add(createFileNode(fileResults, levels));
+            insertedIndices[insertedCount++] = visibleRootNode.getChildCount() - 1;
+        }
 
-        if (results == null || results.size() == 0) {
+        nodesWereInserted(visibleRootNode, insertedIndices);
+    }
+
+    /**
+     * Display a summary of the results as the root message, or a message stating there
+     * are no results if none are displayed.
+     */
+    public void showResultsSummary() {
+        if (visibleRootNode.getChildCount() == 0) {
             setRootMessage("plugin.results.scan-no-results");
 
         } else {
-            int itemCount = 0;
-            for (final PsiFile file : results.keySet()) {
-                final TogglableTreeNode fileNode = new TogglableTreeNode();
-                final List<ProblemDescriptor> problems = results.get(file);
-                if (problems != null) {
-                    for (final ProblemDescriptor problem : problems) {
-                        final ResultTreeNode problemObj = new ResultTreeNode(file, problem);
-
-                        final TogglableTreeNode problemNode = new TogglableTreeNode(problemObj);
-                        fileNode.add(problemNode);
-                    }
-                }
-
-                int problemCount = 0;
-                if (problems != null) {
-                    problemCount = problems.size();
-                }
-                itemCount += problemCount;
-
-                final ResultTreeNode nodeObject = new ResultTreeNode(file.getName(), problemCount);
-                fileNode.setUserObject(nodeObject);
-
-                visibleRootNode.add(fileNode);
-            }
-
+            final ResourceBundle resources = ResourceBundle.getBundle(
+                    CheckStyleConstants.RESOURCE_BUNDLE);
             final MessageFormat resultsMessage = new MessageFormat(
                     resources.getString("plugin.results.scan-results"));
-            setRootText(resultsMessage.format(new Object[]{itemCount, results.size()}));
+            setRootText(resultsMessage.format(new Object[]{itemCount, visibleRootNode.getChildCount()}));
         }
+    }
 
-        filter(false, levels);
-        nodeStructureChanged(visibleRootNode);
+    private FileResultTreeNode createFileNode(final FileResults fileResults,
+                                              final SeverityLevel... levels) {
+        final FileResultTreeNode fileNode = new FileResultTreeNode(fileResults, levels);
+        itemCount += fileNode.getProblemCount();
+        return fileNode;
     }
 }
@@ -1,10 +1,8 @@
 package org.infernus.idea.checkstyle.toolwindow;
 
-import com.intellij.codeInspection.ProblemDescriptor;
-import com.intellij.psi.PsiFile;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.puppycrawl.tools.checkstyle.api.SeverityLevel;
 import org.infernus.idea.checkstyle.CheckStyleConstants;
-import org.infernus.idea.checkstyle.util.ExtendedProblemDescriptor;
 import org.infernus.idea.checkstyle.util.IDEAUtilities;
 
 import javax.swing.*;
@@ -19,8 +17,8 @@ import java.util.ResourceBundle;
  */
 public class ResultTreeNode {
 
-    private PsiFile file;
-    private ProblemDescriptor problem;
+    private FileResults fileResults;
+    private int problemIndex;
     private Icon icon;
     private String text;
     private String tooltip;
@@ -65,23 +63,21 @@ public class ResultTreeNode {
     /**
      * Construct a node for a given problem.
      *
-     * @param file    the file the problem exists in.
-     * @param problem the problem.
+     * @param fileResults  the problems in the file the problem exists in.
+     * @param problemIndex the index of the problem.
      */
-    public ResultTreeNode(final PsiFile file, final ProblemDescriptor problem) {
-        if (file == null) {
-            throw new IllegalArgumentException("File may not be null");
+    public ResultTreeNode(final FileResults fileResults, final int problemIndex) {
+        if (fileResults == null) {
+            throw new IllegalArgumentException("File results may not be null");
         }
-        if (problem == null) {
-            throw new IllegalArgumentException("Problem may not be null");
+        if (problemIndex < 0 || problemIndex >= fileResults.getProblemCount()) {
+            throw new IllegalArgumentException("Invalid problem index: " + problemIndex);
         }
 
-        this.file = file;
-        this.problem = problem;
+        this.fileResults = fileResults;
+        this.problemIndex = problemIndex;
 
-        if (problem instanceof ExtendedProblemDescriptor) {
-            severity = ((ExtendedProblemDescriptor) problem).getSeverity();
-        }
+        severity = fileResults.getSeverity(problemIndex);
 
         updateIconsForProblem();
     }
@@ -108,12 +104,30 @@ public class ResultTreeNode {
     }
 
     /**
-     * Get the problem associated with this node.
+     * Is this node for a problem?
+     *
+     * @return true if this node represents a problem.
+     */
+    public boolean isProblem() {
+        return fileResults != null;
+    }
+
+    /**
+     * Get the line of the problem associated with this node.
      *
-     * @return the problem associated with this node.
+     * @return the line, starting from 1.
      */
-    public ProblemDescriptor getProblem() {
-        return problem;
+    public int getLine() {
+        return fileResults.getLine(problemIndex);
+    }
+
+    /**
+     * Get the column of the problem associated with this node.
+     *
+     * @return the column, or {@link FileResults#NO_COLUMN} if not known.
+     */
+    public int getColumn() {
+        return fileResults.getColumn(problemIndex);
     }
 
     /**
@@ -166,10 +180,13 @@ public class ResultTreeNode {
     /**
      * Get the file associated with this node.
      *
-     * @return the file associated with this node.
+     * @return the file associated with this node, or null if none.
      */
-    public PsiFile getFile() {
-        return file;
+    public VirtualFile getFile() {
+        if (fileResults == null) {
+            return null;
+        }
+        return fileResults.getFile();
     }
 
     /**
@@ -221,13 +238,10 @@ public class ResultTreeNode {
         final MessageFormat stringFormat = new MessageFormat(
                 resources.getString("plugin.results.file-result"));
 
-        final String column = problem instanceof ExtendedProblemDescriptor
-                ? Integer.toString(((ExtendedProblemDescriptor) problem).getColumn()) : "?";
-        final int line = problem instanceof ExtendedProblemDescriptor
-                ? ((ExtendedProblemDescriptor) problem).getLine()
-                : problem.getLineNumber();
+        final String column = getColumn() != FileResults.NO_COLUMN
+                ? Integer.toString(getColumn()) : "?";
 
-        return stringFormat.format(new Object[]{file.getName(),
-                problem.getDescriptionTemplate(), line, column});
+        return stringFormat.format(new Object[]{fileResults.getFileName(),
+                fileResults.getMessage(problemIndex), getLine(), column});
     }
 }
@@ -16,7 +16,6 @@ import com.puppycrawl.tools.checkstyle.api.SeverityLevel;
 import org.apache.log4j.Logger;
 import org.infernus.idea.checkstyle.CheckStyleConstants;
 import org.infernus.idea.checkstyle.CheckStylePlugin;
-import org.infernus.idea.checkstyle.util.ExtendedProblemDescriptor;
 import org.infernus.idea.checkstyle.util.IDEAUtilities;
 
 import javax.swing.Box;
@@ -64,6 +63,11 @@ public class ToolWindowPanel extends JPanel {
     private static final String MAIN_ACTION_GROUP = "CheckStylePluginActions";
     private static final String TREE_ACTION_GROUP = "CheckStylePluginTreeActions";
 
+    /**
+     * The maximum number of problems for which the tree will be fully expanded after a scan.
+     */
+    private static final int MAX_EXPANDED_PROBLEMS = 1000;
+
     private static final Map<Pattern, String> CHECKSTYLE_ERROR_PATTERNS
             = new HashMap<Pattern, String>();
 
@@ -267,22 +271,23 @@ public class ToolWindowPanel extends JPanel {
         }
 
         final ResultTreeNode nodeInfo = (ResultTreeNode) treeNode.getUserObject();
-        if (nodeInfo.getFile() == null || nodeInfo.getProblem() == null) {
+        if (!nodeInfo.isProblem() || nodeInfo.getFile() == null) {
             return; // no problem here :-)
         }
 
+        if (!nodeInfo.getFile().isValid()) {
+            LOG.debug("File has been deleted since the scan: " + nodeInfo.getFile().getPath());
+            return;
+        }
+
         final FileEditorManager fileEditorManager = FileEditorManager.getInstance(project);
         final FileEditor[] editor = fileEditorManager.openFile(
-                nodeInfo.getFile().getVirtualFile(), true);
+                nodeInfo.getFile(), true);
 
         if (editor != null && editor.length > 0 && editor[0] instanceof TextEditor) {
-            final int column = nodeInfo.getProblem() instanceof ExtendedProblemDescriptor
-                    ? ((ExtendedProblemDescriptor) nodeInfo.getProblem()).getColumn() : 0;
-            final int line = nodeInfo.getProblem() instanceof ExtendedProblemDescriptor
-                    ? ((ExtendedProblemDescriptor) nodeInfo.getProblem()).getLine()
-                    : nodeInfo.getProblem().getLineNumber();
+            final int column = Math.max(nodeInfo.getColumn(), 0);
             final LogicalPosition problemPos = new LogicalPosition(
-                    line - 1, column);
+                    nodeInfo.getLine() - 1, column);
 
             ((TextEditor) editor[0]).getEditor().getCaretModel().moveToLogicalPosition(problemPos);
             ((TextEditor) editor[0]).getEditor().getScrollingModel().scrollToCaret(ScrollType.CENTER);
@@ -365,7 +370,12 @@ public class ToolWindowPanel extends JPanel {
      * Expand the error tree to the fullest.
      */
     public void expandTree() {
-        expandTree(3);
+        // expanding the files creates a node for every problem, so we leave large results collapsed
+        if (treeModel.getProblemCount() > MAX_EXPANDED_PROBLEMS) {
+            expandTree(2);
+        } else {
+            expandTree(3);
+        }
     }
 
     /**
@@ -482,7 +492,26 @@ public class ToolWindowPanel extends JPanel {
      * @param results the map of checked files to problem descriptors.
      */
     public void displayResults(final Map<PsiFile, List<ProblemDescriptor>> results) {
-        treeModel.setModel(results, getDisplayedSeverities());
+        treeModel.setModel(FileResults.copyOf(results), getDisplayedSeverities());
+
+        invalidate();
+        repaint();
+    }
+
+    /**
+     * Add results to those displayed while a scan is in progress.
+     *
+     * @param results the problems in each checked file.
+     */
+    public void displayPartialResults(final List<FileResults> results) {
+        treeModel.addResults(results, getDisplayedSeverities());
+    }
+
+    /**
+     * Mark the displayed results as complete, replacing the progress message with a summary.
+     */
+    public void displayResultsComplete() {
+        treeModel.showResultsSummary();
 
         invalidate();
         repaint();
@@ -240,6 +240,7 @@ public final class CheckStyleConfigPanel extends JPanel {
      */
     public boolean isModified() {
         return !ObjectUtils.equals(locations, locationModel.getLocations())
+                || havePropertiesChanged(locations, locationModel.getLocations())
                 || !ObjectUtils.equals(activeLocation, locationModel.getActiveLocation())
                 || !getThirdPartyClasspath().equals(thirdPartyClasspath)
                 || testClassesCheckbox.isSelected() != scanTestClasses;
@@ -249,9 +250,37 @@ public final class CheckStyleConfigPanel extends JPanel {
         return Collections.unmodifiableList(locationModel.getLocations());
     }
 
+    private static boolean havePropertiesChanged(final List<ConfigurationLocation> originalLocations,
+                                                 final List<ConfigurationLocation> editedLocations) {
+        if (originalLocations == null || editedLocations == null
+                || originalLocations.size() != editedLocations.size()) {
+            return false;
+        }
+
+        for (int i = 0; i < originalLocations.size(); ++i) {
+            if (!originalLocations.get(i).getProperties().equals(editedLocations.get(i).getProperties())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Set the locations to edit. The panel edits copies of the locations, so the given
+     * locations are not changed until the settings are applied.
+     *
+     * @param locations the locations.
+     */
     public void setConfigurationLocations(final List<ConfigurationLocation> locations) {
         this.locations = locations;
-        locationModel.setLocations(locations);
+
+        final List<ConfigurationLocation> locationCopies = new ArrayList<ConfigurationLocation>();
+        if (locations != null) {
+            for (final ConfigurationLocation location : locations) {
+                locationCopies.add(location.copy());
+            }
+        }
+        locationModel.setLocations(locationCopies);
     }
 
     public void setActiveLocation(final ConfigurationLocation activeLocation) {
@@ -368,7 +397,7 @@ public final class CheckStyleConfigPanel extends JPanel {
             final ConfigurationLocation location = locationModel.getLocationAt(selectedIndex);
 
             final PropertiesDialogue propertiesDialogue = new PropertiesDialogue(plugin.getProject());
-            propertiesDialogue.setConfigurationLocation(location);
+            propertiesDialogue.setConfigurationLocation(location.copy());
 
             propertiesDialogue.setVisible(true);
 
@@ -2,6 +2,12 @@ package org.infernus.idea.checkstyle.util;
 
 import com.intellij.openapi.fileTypes.FileType;
 import com.intellij.openapi.fileTypes.StdFileTypes;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import org.infernus.idea.checkstyle.CheckStyleConstants;
+
+import java.io.File;
 
 /**
  * General utilities to make life easier with regards to CheckStyle.
@@ -27,4 +33,24 @@ public final class CheckStyleUtilities {
     public static boolean isValidFileType(final FileType fileType) {
         return fileType != null && StdFileTypes.JAVA.equals(fileType);
     }
+
+    /**
+     * Get the file CheckStyle should treat the given PSI file as when its text is
+     * checked in memory.
+     * <p/>
+     * This is the file on disk where there is one, so checks that examine the file's
+     * surroundings behave as they would for a command line scan.
+     *
+     * @param psiFile the file.
+     * @return the file to pass to CheckStyle.
+     */
+    public static File getFileForScan(final PsiFile psiFile) {
+        final VirtualFile virtualFile = psiFile.getVirtualFile();
+        if (virtualFile != null && virtualFile.getFileSystem() instanceof LocalFileSystem) {
+            return new File(virtualFile.getPath());
+        }
+
+        return new File(System.getProperty("java.io.tmpdir"), CheckStyleConstants.TEMPFILE_NAME
+                + "-" + System.identityHashCode(psiFile) + "-" + psiFile.getName());
+    }
 }
@@ -0,0 +1,279 @@
+package org.infernus.idea.checkstyle.util;
+
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NonNls;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A class loader over a set of jars and directories which knows the packages they contain.
+ * <p/>
+ * CheckStyle tries each of its package prefixes in turn when resolving a module name, so most
+ * lookups are for classes that do not exist. A plain URL class loader searches every jar for
+ * each of these; this loader fails them immediately unless a jar contains the package.
+ * <p/>
+ * The packages of each jar are found by a single scan of its entries, and are stored in the
+ * index directory so later sessions need not scan unchanged jars again. Directories may change
+ * at any time, e.g. when a module is compiled, so they are not indexed; instead a directory is
+ * checked for the package on each lookup that no jar can satisfy. Should any element
+ * of the classpath fail to be indexed, lookups are no longer filtered, as its packages are
+ * unknown.
+ */
+public class IndexedClassLoader extends URLClassLoader {
+
+    /**
+     * Logger for this class.
+     */
+    @NonNls
+    private static final Logger LOG = Logger.getLogger(IndexedClassLoader.class);
+
+    private static final int INDEX_VERSION = 1;
+
+    private final Set<String> packages = new HashSet<String>();
+    private final List<File> directories = new ArrayList<File>();
+
+    /**
+     * Have the packages of every element of the classpath been found?
+     */
+    private boolean fullyIndexed = true;
+
+    /**
+     * Create a new class loader.
+     *
+     * @param classpath      the jars and directories to load from.
+     * @param parent         the parent class loader.
+     * @param indexDirectory the directory to store jar indices in, or null to not store them.
+     */
+    public IndexedClassLoader(final List<File> classpath,
+                              final ClassLoader parent,
+                              final File indexDirectory) {
+        super(new URL[0], parent);
+
+        for (final File pathElement : classpath) {
+            final URL url;
+            try {
+                // toURI().toURL() escapes, whereas toURL() doesn't.
+                url = pathElement.toURI().toURL();
+
+            } catch (IOException e) {
+                LOG.error("Third party classpath element could not be read: " + pathElement, e);
+                continue;
+            }
+
+            if (pathElement.isDirectory()) {
+                directories.add(pathElement);
+                addURL(url);
+                continue;
+            }
+
+            try {
+                packages.addAll(packagesOf(pathElement, indexDirectory));
+
+            } catch (IOException e) {
+                LOG.warn("Third party classpath element could not be indexed: " + pathElement, e);
+                fullyIndexed = false;
+            }
+
+            addURL(url);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Class<?> findClass(final String name) throws ClassNotFoundException {
+        final int packageEnd = name.lastIndexOf('.');
+        final String packagePath;
+        if (packageEnd >= 0) {
+            packagePath = name.substring(0, packageEnd).replace('.', '/');
+        } else {
+            packagePath = "";
+        }
+
+        if (!mayContain(packagePath)) {
+            throw new ClassNotFoundException(name);
+        }
+        return super.findClass(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public URL findResource(final String name) {
+        if (!mayContain(directoryOf(name))) {
+            return null;
+        }
+        return super.findResource(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Enumeration<URL> findResources(final String name) throws IOException {
+        if (!mayContain(directoryOf(name))) {
+            return Collections.enumeration(Collections.<URL>emptyList());
+        }
+        return super.findResources(name);
+    }
+
+    private boolean mayContain(final String packagePath) {
+        return !fullyIndexed || packages.contains(packagePath) || isInDirectory(packagePath);
+    }
+
+    private boolean isInDirectory(final String packagePath) {
+        for (final File directory : directories) {
+            if (new File(directory, packagePath).isDirectory()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String directoryOf(final String resourceName) {
+        String path = resourceName;
+        if (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+
+        final int directoryEnd = path.lastIndexOf('/');
+        if (directoryEnd >= 0) {
+            return path.substring(0, directoryEnd);
+        }
+        return "";
+    }
+
+    private static Set<String> packagesOf(final File pathElement,
+                                          final File indexDirectory) throws IOException {
+        final Set<String> elementPackages = new HashSet<String>();
+        if (!pathElement.isFile()) {
+            return elementPackages;
+        }
+
+        final File indexFile = indexFileFor(pathElement, indexDirectory);
+        if (indexFile != null && readIndex(pathElement, indexFile, elementPackages)) {
+            return elementPackages;
+        }
+
+        final ZipFile jarFile = new ZipFile(pathElement);
+        try {
+            final Enumeration<? extends ZipEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory()) {
+                    elementPackages.add(directoryOf(entry.getName()));
+                }
+            }
+
+        } finally {
+            jarFile.close();
+        }
+
+        if (indexFile != null) {
+            writeIndex(pathElement, indexFile, elementPackages);
+        }
+        return elementPackages;
+    }
+
+    private static File indexFileFor(final File jarFile, final File indexDirectory) {
+        if (indexDirectory == null) {
+            return null;
+        }
+        return new File(indexDirectory, jarFile.getName() + "."
+                + Integer.toHexString(jarFile.getAbsolutePath().hashCode()) + ".idx");
+    }
+
+    private static boolean readIndex(final File jarFile,
+                                     final File indexFile,
+                                     final Set<String> elementPackages) {
+        if (!indexFile.exists()) {
+            return false;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(indexFile));
+            if (in.readInt() != INDEX_VERSION
+                    || !jarFile.getAbsolutePath().equals(in.readUTF())
+                    || in.readLong() != jarFile.lastModified()
+                    || in.readLong() != jarFile.length()) {
+                return false;
+            }
+
+            final int packageCount = in.readInt();
+            final Set<String> indexedPackages = new HashSet<String>();
+            for (int i = 0; i < packageCount; ++i) {
+                indexedPackages.add(in.readUTF());
+            }
+
+            elementPackages.addAll(indexedPackages);
+            return true;
+
+        } catch (IOException e) {
+            LOG.debug("Could not read jar index " + indexFile.getAbsolutePath(), e);
+            return false;
+
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignored
+                }
+            }
+        }
+    }
+
+    private static void writeIndex(final File jarFile,
+                                   final File indexFile,
+                                   final Set<String> elementPackages) {
+        final File indexDirectory = indexFile.getParentFile();
+        if (!indexDirectory.exists() && !indexDirectory.mkdirs()) {
+            LOG.debug("Could not create jar index directory " + indexDirectory.getAbsolutePath());
+            return;
+        }
+
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(indexFile));
+            out.writeInt(INDEX_VERSION);
+            out.writeUTF(jarFile.getAbsolutePath());
+            out.writeLong(jarFile.lastModified());
+            out.writeLong(jarFile.length());
+            out.writeInt(elementPackages.size());
+            for (final String packagePath : elementPackages) {
+                out.writeUTF(packagePath);
+            }
+
+        } catch (IOException e) {
+            LOG.debug("Could not write jar index " + indexFile.getAbsolutePath(), e);
+            indexFile.delete();
+
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignored
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.infernus.idea.checkstyle.util;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A table of the messages raised by CheckStyle, shared by all results that hold them.
+ * <p/>
+ * Most violations in a project are raised by a small number of checks with the same
+ * arguments, so the same message text is formatted again and again. Interning the text
+ * means each distinct message is held once, however many results refer to it.
+ * <p/>
+ * Unlike {@link String#intern()}, messages are held weakly and are discarded once no
+ * results refer to them.
+ */
+public final class MessageTable {
+
+    private static final Map<String, WeakReference<String>> MESSAGES
+            = new WeakHashMap<String, WeakReference<String>>();
+
+    /**
+     * This is a utility class and cannot be instantiated.
+     */
+    private MessageTable() {
+
+    }
+
+    /**
+     * Get the shared instance of a message.
+     *
+     * @param message the message. May be null.
+     * @return the shared instance equal to the message, or null if the message is null.
+     */
+    public static String intern(final String message) {
+        if (message == null) {
+            return null;
+        }
+
+        synchronized (MESSAGES) {
+            final WeakReference<String> sharedReference = MESSAGES.get(message);
+            if (sharedReference != null) {
+                final String sharedMessage = sharedReference.get();
+                if (sharedMessage != null) {
+                    return sharedMessage;
+                }
+            }
+
+            MESSAGES.put(message, new WeakReference<String>(message));
+            return message;
+        }
+    }
+}
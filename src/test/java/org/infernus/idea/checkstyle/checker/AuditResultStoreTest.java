@@ -0,0 +1,198 @@
+package org.infernus.idea.checkstyle.checker;
+
+import com.puppycrawl.tools.checkstyle.api.SeverityLevel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class AuditResultStoreTest {
+    private static final String FILE_PATH = "/a/project/src/AClass.java";
+    private static final String OTHER_FILE_PATH = "/a/project/src/AnotherClass.java";
+
+    @Rule
+    public TemporaryFolder storeDirectory = new TemporaryFolder();
+
+    private AuditResultStore unit;
+
+    @Before
+    public void setUp() {
+        unit = new AuditResultStore(storeDirectory.getRoot());
+    }
+
+    @After
+    public void tearDown() {
+        unit.close();
+    }
+
+    @Test
+    public void storedEventsShouldBeReadBack() {
+        unit.put(FILE_PATH, "aKey", Arrays.asList(anEvent(3, 7, "aMessage")));
+
+        final List<AuditResultCache.CachedAuditEvent> events = unit.get(FILE_PATH, "aKey");
+
+        assertThat(events, hasSize(1));
+        assertThat(events.get(0).getLine(), is(equalTo(3)));
+        assertThat(events.get(0).getColumn(), is(equalTo(7)));
+        assertThat(events.get(0).getSeverity(), is(equalTo(SeverityLevel.WARNING)));
+        assertThat(events.get(0).getModuleId(), is(equalTo("aModuleId")));
+        assertThat(events.get(0).getSourceName(), is(equalTo(String.class.getName())));
+        assertThat(events.get(0).getMessage(), is(equalTo("aMessage")));
+    }
+
+    @Test
+    public void sourceNameOfAnUnknownCheckShouldBeStored() {
+        unit.put(FILE_PATH, "aKey", Arrays.asList(new AuditResultCache.CachedAuditEvent(3, 7,
+                SeverityLevel.WARNING, "aModuleId", "an.unknown.Check", "aMessage")));
+        unit.close();
+
+        unit = new AuditResultStore(storeDirectory.getRoot());
+
+        assertThat(unit.get(FILE_PATH, "aKey").get(0).getSourceName(), is(equalTo("an.unknown.Check")));
+    }
+
+    @Test
+    public void fileWithNoEventsShouldBeReadBackAsEmpty() {
+        unit.put(FILE_PATH, "aKey", Arrays.<AuditResultCache.CachedAuditEvent>asList());
+
+        assertThat(unit.get(FILE_PATH, "aKey"), is(empty()));
+    }
+
+    @Test
+    public void eventsShouldNotBeReturnedForADifferentKey() {
+        unit.put(FILE_PATH, "aKey", Arrays.asList(anEvent(3, 7, "aMessage")));
+
+        assertThat(unit.get(FILE_PATH, "anotherKey"), is(nullValue()));
+    }
+
+    @Test
+    public void eventsShouldNotBeReturnedForAnUnknownFile() {
+        unit.put(FILE_PATH, "aKey", Arrays.asList(anEvent(3, 7, "aMessage")));
+
+        assertThat(unit.get(OTHER_FILE_PATH, "aKey"), is(nullValue()));
+    }
+
+    @Test
+    public void laterEventsShouldReplaceEarlierEventsForAFile() {
+        unit.put(FILE_PATH, "aKey", Arrays.asList(anEvent(3, 7, "aMessage")));
+        unit.put(FILE_PATH, "anotherKey", Arrays.asList(anEvent(5, 1, "anotherMessage")));
+
+        assertThat(unit.get(FILE_PATH, "aKey"), is(nullValue()));
+        assertThat(unit.get(FILE_PATH, "anotherKey").get(0).getMessage(), is(equalTo("anotherMessage")));
+    }
+
+    @Test
+    public void eventsShouldSurviveTheStoreBeingReopened() {
+        unit.put(FILE_PATH, "aKey", Arrays.asList(anEvent(3, 7, "aMessage")));
+        unit.put(OTHER_FILE_PATH, "anotherKey", Arrays.asList(anEvent(5, 1, "anotherMessage")));
+        unit.close();
+
+        unit = new AuditResultStore(storeDirectory.getRoot());
+
+        assertThat(unit.get(FILE_PATH, "aKey").get(0).getMessage(), is(equalTo("aMessage")));
+        assertThat(unit.get(OTHER_FILE_PATH, "anotherKey").get(0).getMessage(), is(equalTo("anotherMessage")));
+    }
+
+    @Test
+    public void clearedStoreShouldHoldNoEvents() {
+        unit.put(FILE_PATH, "aKey", Arrays.asList(anEvent(3, 7, "aMessage")));
+        unit.clear();
+
+        assertThat(unit.get(FILE_PATH, "aKey"), is(nullValue()));
+    }
+
+    @Test
+    public void closingTheStoreShouldCompactSupersededRecords() {
+        final String largeMessage = aMessageOfLength(64 * 1024);
+        for (int i = 0; i < 40; ++i) {
+            unit.put(FILE_PATH, "key" + i, Arrays.asList(anEvent(i, 0, largeMessage)));
+        }
+        unit.put(OTHER_FILE_PATH, "anotherKey", Arrays.asList(anEvent(5, 1, "anotherMessage")));
+
+        assertThat(storeFile().length(), is(greaterThan(40L * 64 * 1024)));
+
+        unit.close();
+
+        assertThat(storeFile().length(), is(lessThan(2L * 64 * 1024)));
+
+        unit = new AuditResultStore(storeDirectory.getRoot());
+
+        assertThat(unit.get(FILE_PATH, "key38"), is(nullValue()));
+        assertThat(unit.get(FILE_PATH, "key39").get(0).getLine(), is(equalTo(39)));
+        assertThat(unit.get(FILE_PATH, "key39").get(0).getMessage(), is(equalTo(largeMessage)));
+        assertThat(unit.get(OTHER_FILE_PATH, "anotherKey").get(0).getMessage(), is(equalTo("anotherMessage")));
+    }
+
+    @Test
+    public void incompleteRecordsShouldBeDiscardedWhenTheStoreIsReopened() throws IOException {
+        unit.put(FILE_PATH, "aKey", Arrays.asList(anEvent(3, 7, "aMessage")));
+        unit.close();
+
+        final RandomAccessFile file = new RandomAccessFile(storeFile(), "rw");
+        try {
+            file.seek(file.length());
+            file.writeInt(1000);
+            file.writeInt(12);
+        } finally {
+            file.close();
+        }
+
+        unit = new AuditResultStore(storeDirectory.getRoot());
+
+        assertThat(unit.get(FILE_PATH, "aKey").get(0).getMessage(), is(equalTo("aMessage")));
+
+        unit.put(OTHER_FILE_PATH, "anotherKey", Arrays.asList(anEvent(5, 1, "anotherMessage")));
+        unit.close();
+        unit = new AuditResultStore(storeDirectory.getRoot());
+
+        assertThat(unit.get(OTHER_FILE_PATH, "anotherKey").get(0).getMessage(), is(equalTo("anotherMessage")));
+    }
+
+    @Test
+    public void storeOfAnUnknownFormatShouldBeDiscarded() throws IOException {
+        unit.close();
+
+        final RandomAccessFile file = new RandomAccessFile(storeFile(), "rw");
+        try {
+            file.writeInt(0x12345678);
+            file.writeInt(1);
+            file.writeInt(1000);
+        } finally {
+            file.close();
+        }
+
+        unit = new AuditResultStore(storeDirectory.getRoot());
+        unit.put(FILE_PATH, "aKey", Arrays.asList(anEvent(3, 7, "aMessage")));
+
+        assertThat(unit.get(FILE_PATH, "aKey").get(0).getMessage(), is(equalTo("aMessage")));
+    }
+
+    private File storeFile() {
+        return new File(storeDirectory.getRoot(), "results.dat");
+    }
+
+    private static AuditResultCache.CachedAuditEvent anEvent(final int line,
+                                                            final int column,
+                                                            final String message) {
+        return new AuditResultCache.CachedAuditEvent(line, column, SeverityLevel.WARNING,
+                "aModuleId", String.class.getName(), message);
+    }
+
+    private static String aMessageOfLength(final int length) {
+        final StringBuilder message = new StringBuilder(length);
+        for (int i = 0; i < length; ++i) {
+            message.append((char) ('a' + i % 26));
+        }
+        return message.toString();
+    }
+}
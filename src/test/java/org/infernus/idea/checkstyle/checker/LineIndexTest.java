@@ -0,0 +1,114 @@
+package org.infernus.idea.checkstyle.checker;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class LineIndexTest {
+
+    @Test
+    public void firstLineShouldStartAtTheStartOfTheText() {
+        final LineIndex unit = indexOf("class A {}");
+
+        assertThat(unit.offsetOf(1, 0), is(equalTo(0)));
+        assertThat(unit.offsetOf(1, 6), is(equalTo(6)));
+    }
+
+    @Test
+    public void linesTerminatedByLineFeedsShouldBeIndexed() {
+        final LineIndex unit = indexOf("line1\nline2\nline3");
+
+        assertThat(unit.offsetOf(2, 0), is(equalTo(6)));
+        assertThat(unit.offsetOf(3, 2), is(equalTo(14)));
+    }
+
+    @Test
+    public void linesTerminatedByCarriageReturnsShouldBeIndexed() {
+        final LineIndex unit = indexOf("line1\rline2\rline3");
+
+        assertThat(unit.offsetOf(2, 0), is(equalTo(6)));
+        assertThat(unit.offsetOf(3, 2), is(equalTo(14)));
+    }
+
+    @Test
+    public void linesTerminatedByCarriageReturnLineFeedsShouldBeIndexed() {
+        final LineIndex unit = indexOf("line1\r\nline2\r\nline3");
+
+        assertThat(unit.offsetOf(2, 0), is(equalTo(7)));
+        assertThat(unit.offsetOf(3, 2), is(equalTo(16)));
+    }
+
+    @Test
+    public void mixedLineTerminatorsShouldBeIndexed() {
+        final LineIndex unit = indexOf("a\r\nb\nc\rd");
+
+        assertThat(unit.offsetOf(2, 0), is(equalTo(3)));
+        assertThat(unit.offsetOf(3, 0), is(equalTo(5)));
+        assertThat(unit.offsetOf(4, 0), is(equalTo(7)));
+    }
+
+    @Test
+    public void consecutiveCarriageReturnsShouldEachEndALine() {
+        final LineIndex unit = indexOf("a\r\rb");
+
+        assertThat(unit.offsetOf(2, 0), is(equalTo(2)));
+        assertThat(unit.offsetOf(3, 0), is(equalTo(3)));
+    }
+
+    @Test
+    public void columnsBeyondTheEndOfALineShouldBeLimitedToTheLine() {
+        final LineIndex unit = indexOf("ab\ncd");
+
+        assertThat(unit.offsetOf(1, 10), is(equalTo(2)));
+        assertThat(unit.offsetOf(2, 10), is(equalTo(4)));
+    }
+
+    @Test
+    public void linesBeyondTheEndOfTheTextShouldMapToTheEndOfTheText() {
+        final LineIndex unit = indexOf("ab\ncd");
+
+        assertThat(unit.offsetOf(5, 0), is(equalTo(5)));
+    }
+
+    @Test
+    public void emptyLastLineShouldMapToTheEndOfTheText() {
+        final LineIndex unit = indexOf("ab\n");
+
+        assertThat(unit.offsetOf(2, 0), is(equalTo(3)));
+        assertThat(unit.offsetOf(2, 4), is(equalTo(3)));
+    }
+
+    @Test
+    public void emptyTextShouldBeIndexed() {
+        final LineIndex unit = indexOf("");
+
+        assertThat(unit.offsetOf(1, 0), is(equalTo(0)));
+        assertThat(unit.isWhitespaceAt(0), is(false));
+    }
+
+    @Test
+    public void textWithManyLinesShouldBeIndexed() {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; ++i) {
+            text.append("x\r\n");
+        }
+        final LineIndex unit = indexOf(text.toString());
+
+        assertThat(unit.offsetOf(1000, 0), is(equalTo(2997)));
+    }
+
+    @Test
+    public void whitespaceShouldBeFoundAtAnOffset() {
+        final LineIndex unit = indexOf("a b\r\n");
+
+        assertThat(unit.isWhitespaceAt(0), is(false));
+        assertThat(unit.isWhitespaceAt(1), is(true));
+        assertThat(unit.isWhitespaceAt(3), is(true));
+        assertThat(unit.isWhitespaceAt(5), is(false));
+    }
+
+    private static LineIndex indexOf(final String text) {
+        return new LineIndex(text.toCharArray());
+    }
+}
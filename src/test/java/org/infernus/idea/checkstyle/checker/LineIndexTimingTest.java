@@ -0,0 +1,63 @@
+package org.infernus.idea.checkstyle.checker;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * Times the mapping of audit event positions to offsets over large files. The limits are
+ * generous, so these fail on a change in complexity rather than on a slow machine.
+ */
+public class LineIndexTimingTest {
+    private static final int LINE_COUNT = 200000;
+    private static final int EVENT_COUNT = 1000000;
+    private static final String LINE = "    final int aVariable = anotherVariable + 1;";
+
+    private static final long INDEX_LIMIT_MS = 2000;
+    private static final long MAPPING_LIMIT_MS = 2000;
+
+    @Test
+    public void largeFileShouldBeIndexedWithinTheLimit() {
+        final char[] text = aFileOf(LINE_COUNT);
+
+        final long start = System.currentTimeMillis();
+        final LineIndex unit = new LineIndex(text);
+        final long elapsed = System.currentTimeMillis() - start;
+
+        assertThat(unit.offsetOf(LINE_COUNT, 0), is(equalTo((LINE_COUNT - 1) * (LINE.length() + 2))));
+        assertThat(elapsed, is(lessThan(INDEX_LIMIT_MS)));
+    }
+
+    @Test
+    public void eventsShouldBeMappedToOffsetsWithinTheLimit() {
+        final LineIndex unit = new LineIndex(aFileOf(LINE_COUNT));
+        final Random random = new Random(42);
+
+        final long start = System.currentTimeMillis();
+        long offsetTotal = 0;
+        int whitespaceCount = 0;
+        for (int i = 0; i < EVENT_COUNT; ++i) {
+            final int offset = unit.offsetOf(random.nextInt(LINE_COUNT) + 1, random.nextInt(LINE.length()));
+            offsetTotal += offset;
+            if (unit.isWhitespaceAt(offset)) {
+                ++whitespaceCount;
+            }
+        }
+        final long elapsed = System.currentTimeMillis() - start;
+
+        assertThat(offsetTotal, is(greaterThan(0L)));
+        assertThat(whitespaceCount, is(greaterThan(0)));
+        assertThat(elapsed, is(lessThan(MAPPING_LIMIT_MS)));
+    }
+
+    private static char[] aFileOf(final int lineCount) {
+        final StringBuilder text = new StringBuilder(lineCount * (LINE.length() + 2));
+        for (int i = 0; i < lineCount; ++i) {
+            text.append(LINE).append("\r\n");
+        }
+        return text.toString().toCharArray();
+    }
+}
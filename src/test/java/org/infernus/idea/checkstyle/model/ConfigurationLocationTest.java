@@ -8,6 +8,7 @@ import org.junit.Test;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 
 import static org.hamcrest.CoreMatchers.any;
 import static org.hamcrest.CoreMatchers.is;
@@ -40,6 +41,18 @@ public class ConfigurationLocationTest {
         assertThat(unit.getProperties(), hasEntry("property-three", null));
     }
 
+    @Test
+    public void propertiesOfACopyShouldBeIndependentOfTheOriginal() {
+        unit.setLocation("aLocation");
+        unit.setProperties(Collections.singletonMap("property-one", "aValue"));
+
+        final ConfigurationLocation copy = unit.copy();
+        copy.setProperties(Collections.singletonMap("property-one", "anotherValue"));
+
+        assertThat(copy, is(equalTo((ConfigurationLocation) unit)));
+        assertThat(unit.getProperties(), hasEntry("property-one", "aValue"));
+        assertThat(copy.getProperties(), hasEntry("property-one", "anotherValue"));
+    }
 
     private class TestConfigurationLocation extends ConfigurationLocation {
         public TestConfigurationLocation() {
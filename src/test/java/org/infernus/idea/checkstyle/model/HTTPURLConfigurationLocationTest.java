@@ -0,0 +1,226 @@
+package org.infernus.idea.checkstyle.model;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class HTTPURLConfigurationLocationTest {
+    private static final String MAX_AGE_PROPERTY = "checkstyle-idea.remote-configuration.max-age";
+    private static final String LAST_MODIFIED = "Wed, 01 Sep 2010 10:00:00 GMT";
+
+    @Rule
+    public TemporaryFolder cacheDirectory = new TemporaryFolder();
+
+    private final List<String> entityTagsRequested = new ArrayList<String>();
+    private final List<String> modificationTimesRequested = new ArrayList<String>();
+
+    private HttpServer server;
+    private String location;
+
+    private String content = "<module name=\"Checker\"/>";
+    private String entityTag = "\"v1\"";
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/checkstyle.xml", new ConfigurationHandler());
+        server.start();
+
+        location = "http://localhost:" + server.getAddress().getPort() + "/checkstyle.xml";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        System.clearProperty(MAX_AGE_PROPERTY);
+    }
+
+    @Test
+    public void fileShouldBeRetrievedFromTheServer() throws IOException {
+        final HTTPURLConfigurationLocation unit = aLocation();
+
+        assertThat(contentOf(unit), is(equalTo(content)));
+        assertThat(requestCount(), is(equalTo(1)));
+    }
+
+    @Test
+    public void firstRequestShouldNotBeConditional() throws IOException {
+        contentOf(aLocation());
+
+        assertThat(entityTagsRequested.get(0), is(nullValue()));
+        assertThat(modificationTimesRequested.get(0), is(nullValue()));
+    }
+
+    @Test
+    public void copyShouldBeReusedWithinTheMaxAge() throws IOException {
+        setMaxAge(3600);
+        final HTTPURLConfigurationLocation unit = aLocation();
+
+        contentOf(unit);
+        content = "<module name=\"Changed\"/>";
+
+        assertThat(contentOf(unit), is(equalTo("<module name=\"Checker\"/>")));
+        assertThat(requestCount(), is(equalTo(1)));
+    }
+
+    @Test
+    public void copyShouldBeRevalidatedWithTheEntityTagAndModificationTimeOnceExpired() throws IOException {
+        setMaxAge(0);
+        final HTTPURLConfigurationLocation unit = aLocation();
+
+        contentOf(unit);
+        final String revalidatedContent = contentOf(unit);
+
+        assertThat(requestCount(), is(equalTo(2)));
+        assertThat(entityTagsRequested.get(1), is(equalTo("\"v1\"")));
+        assertThat(modificationTimesRequested.get(1), is(equalTo(LAST_MODIFIED)));
+        assertThat(revalidatedContent, is(equalTo(content)));
+    }
+
+    @Test
+    public void changedFileShouldReplaceTheCopyOnceExpired() throws IOException {
+        setMaxAge(0);
+        final HTTPURLConfigurationLocation unit = aLocation();
+
+        contentOf(unit);
+        content = "<module name=\"Changed\"/>";
+        entityTag = "\"v2\"";
+
+        assertThat(contentOf(unit), is(equalTo("<module name=\"Changed\"/>")));
+
+        contentOf(unit);
+        assertThat(entityTagsRequested.get(2), is(equalTo("\"v2\"")));
+    }
+
+    @Test
+    public void copyOnDiskShouldBeRevalidatedByALaterSession() throws IOException {
+        setMaxAge(3600);
+        contentOf(aLocation());
+
+        final HTTPURLConfigurationLocation unit = aLocation();
+
+        assertThat(contentOf(unit), is(equalTo(content)));
+        assertThat(requestCount(), is(equalTo(2)));
+        assertThat(entityTagsRequested.get(1), is(equalTo("\"v1\"")));
+    }
+
+    @Test
+    public void copyOnDiskShouldBeUsedWhenTheServerIsDown() throws IOException {
+        contentOf(aLocation());
+        server.stop(0);
+
+        final HTTPURLConfigurationLocation unit = aLocation();
+
+        assertThat(contentOf(unit), is(equalTo(content)));
+    }
+
+    @Test
+    public void copyInMemoryShouldBeUsedWhenTheServerIsDown() throws IOException {
+        setMaxAge(0);
+        final HTTPURLConfigurationLocation unit = aLocation();
+
+        contentOf(unit);
+        server.stop(0);
+
+        assertThat(contentOf(unit), is(equalTo(content)));
+    }
+
+    @Test(expected = IOException.class)
+    public void failureShouldBeReportedWhenTheServerIsDownAndNoCopyIsHeld() throws IOException {
+        server.stop(0);
+
+        contentOf(aLocation());
+    }
+
+    @Test
+    public void copyOfADifferentLocationShouldNotBeUsed() throws IOException {
+        contentOf(aLocation());
+        server.stop(0);
+
+        final HTTPURLConfigurationLocation unit = aLocation();
+        unit.setLocation(location + "?another");
+
+        try {
+            contentOf(unit);
+            throw new AssertionError("Expected the retrieval to fail");
+
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private HTTPURLConfigurationLocation aLocation() {
+        final HTTPURLConfigurationLocation configurationLocation
+                = new HTTPURLConfigurationLocation(cacheDirectory.getRoot());
+        configurationLocation.setLocation(location);
+        return configurationLocation;
+    }
+
+    private synchronized int requestCount() {
+        return entityTagsRequested.size();
+    }
+
+    private static void setMaxAge(final long maxAgeInSeconds) {
+        System.setProperty(MAX_AGE_PROPERTY, Long.toString(maxAgeInSeconds));
+    }
+
+    private static String contentOf(final HTTPURLConfigurationLocation configurationLocation) throws IOException {
+        final InputStream in = configurationLocation.resolveFile();
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+
+        } finally {
+            in.close();
+        }
+    }
+
+    private class ConfigurationHandler implements HttpHandler {
+        public void handle(final HttpExchange exchange) throws IOException {
+            final String requestedEntityTag = exchange.getRequestHeaders().getFirst("If-None-Match");
+            synchronized (HTTPURLConfigurationLocationTest.this) {
+                entityTagsRequested.add(requestedEntityTag);
+                modificationTimesRequested.add(exchange.getRequestHeaders().getFirst("If-Modified-Since"));
+            }
+
+            exchange.getResponseHeaders().set("ETag", entityTag);
+            exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+
+            if (entityTag.equals(requestedEntityTag)) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+
+            final byte[] body = content.getBytes("UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            final OutputStream out = exchange.getResponseBody();
+            try {
+                out.write(body);
+            } finally {
+                out.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package org.infernus.idea.checkstyle.toolwindow;
+
+import com.puppycrawl.tools.checkstyle.api.SeverityLevel;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.TreeNode;
+import java.util.Enumeration;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class FileResultTreeNodeTest {
+    private static final byte ERROR = (byte) SeverityLevel.ERROR.ordinal();
+    private static final byte WARNING = (byte) SeverityLevel.WARNING.ordinal();
+    private static final byte NONE = (byte) FileResults.NO_SEVERITY;
+
+    private FileResults results;
+
+    @Before
+    public void setUp() {
+        results = new FileResults(null, "AClass.java",
+                new int[]{1, 2, 3, 4, 5},
+                new int[]{0, 0, FileResults.NO_COLUMN, 0, 0},
+                new byte[]{ERROR, WARNING, ERROR, NONE, WARNING},
+                new String[]{"error1", "warning1", "error2", "none1", "warning2"});
+    }
+
+    @Test
+    public void allProblemsShouldBeChildrenWhenAllSeveritiesAreVisible() {
+        final FileResultTreeNode unit = new FileResultTreeNode(results,
+                SeverityLevel.ERROR, SeverityLevel.WARNING, null);
+
+        assertThat(unit.getChildCount(), is(equalTo(5)));
+        assertThat(linesOf(unit), is(equalTo(new int[]{1, 2, 3, 4, 5})));
+    }
+
+    @Test
+    public void onlyProblemsOfVisibleSeveritiesShouldBeChildren() {
+        final FileResultTreeNode unit = new FileResultTreeNode(results, SeverityLevel.ERROR);
+
+        assertThat(unit.getChildCount(), is(equalTo(2)));
+        assertThat(linesOf(unit), is(equalTo(new int[]{1, 3})));
+    }
+
+    @Test
+    public void problemsWithoutASeverityShouldBeVisibleForANullLevel() {
+        final FileResultTreeNode unit = new FileResultTreeNode(results, (SeverityLevel) null);
+
+        assertThat(unit.getChildCount(), is(equalTo(1)));
+        assertThat(linesOf(unit), is(equalTo(new int[]{4})));
+    }
+
+    @Test
+    public void noProblemsShouldBeChildrenWhenTheLevelsAreNull() {
+        final FileResultTreeNode unit = new FileResultTreeNode(results, (SeverityLevel[]) null);
+
+        assertThat(unit.getChildCount(), is(equalTo(0)));
+        assertThat(unit.children().hasMoreElements(), is(false));
+    }
+
+    @Test
+    public void problemCountShouldIncludeHiddenProblems() {
+        final FileResultTreeNode unit = new FileResultTreeNode(results, SeverityLevel.ERROR);
+
+        assertThat(unit.getProblemCount(), is(equalTo(5)));
+    }
+
+    @Test
+    public void changingTheVisibleLevelsShouldUpdateTheChildren() {
+        final FileResultTreeNode unit = new FileResultTreeNode(results, SeverityLevel.ERROR);
+        assertThat(linesOf(unit), is(equalTo(new int[]{1, 3})));
+
+        assertThat(unit.setVisibleLevels(SeverityLevel.WARNING), is(true));
+
+        assertThat(unit.getChildCount(), is(equalTo(2)));
+        assertThat(linesOf(unit), is(equalTo(new int[]{2, 5})));
+    }
+
+    @Test
+    public void settingTheSameLevelsShouldReportNoChange() {
+        final FileResultTreeNode unit = new FileResultTreeNode(results, SeverityLevel.ERROR);
+
+        assertThat(unit.setVisibleLevels(SeverityLevel.ERROR), is(false));
+    }
+
+    @Test
+    public void changingLevelsWithoutProblemsShouldReportNoChange() {
+        final FileResultTreeNode unit = new FileResultTreeNode(results, SeverityLevel.ERROR);
+
+        assertThat(unit.setVisibleLevels(SeverityLevel.ERROR, SeverityLevel.INFO), is(false));
+        assertThat(unit.getChildCount(), is(equalTo(2)));
+    }
+
+    @Test
+    public void problemNodesShouldBeReusedOnceCreated() {
+        final FileResultTreeNode unit = new FileResultTreeNode(results, SeverityLevel.ERROR, SeverityLevel.WARNING);
+
+        assertThat(unit.getChildAt(1), is(sameInstance(unit.getChildAt(1))));
+    }
+
+    @Test
+    public void problemNodesShouldBeReusedWhenTheVisibleLevelsChange() {
+        final FileResultTreeNode unit = new FileResultTreeNode(results, SeverityLevel.ERROR, SeverityLevel.WARNING);
+        final TreeNode secondError = unit.getChildAt(2);
+
+        unit.setVisibleLevels(SeverityLevel.ERROR);
+
+        assertThat(unit.getChildAt(1), is(sameInstance(secondError)));
+    }
+
+    @Test
+    public void indexOfAProblemNodeShouldBeItsVisibleIndex() {
+        final FileResultTreeNode unit = new FileResultTreeNode(results, SeverityLevel.ERROR, SeverityLevel.WARNING);
+        final TreeNode secondError = unit.getChildAt(2);
+
+        assertThat(unit.getIndex(secondError), is(equalTo(2)));
+
+        unit.setVisibleLevels(SeverityLevel.ERROR);
+
+        assertThat(unit.getIndex(secondError), is(equalTo(1)));
+    }
+
+    @Test
+    public void indexOfAHiddenProblemNodeShouldBeMinusOne() {
+        final FileResultTreeNode unit = new FileResultTreeNode(results, SeverityLevel.ERROR, SeverityLevel.WARNING);
+        final TreeNode firstWarning = unit.getChildAt(1);
+
+        unit.setVisibleLevels(SeverityLevel.ERROR);
+
+        assertThat(unit.getIndex(firstWarning), is(equalTo(-1)));
+    }
+
+    @Test
+    public void problemNodesShouldHaveTheFileNodeAsTheirParent() {
+        final FileResultTreeNode unit = new FileResultTreeNode(results, SeverityLevel.ERROR);
+
+        assertThat(unit.getChildAt(0).getParent(), is(sameInstance((TreeNode) unit)));
+    }
+
+    @Test(expected = ArrayIndexOutOfBoundsException.class)
+    public void hiddenProblemsShouldNotBeReachableByIndex() {
+        final FileResultTreeNode unit = new FileResultTreeNode(results, SeverityLevel.ERROR);
+
+        unit.getChildAt(2);
+    }
+
+    private static int[] linesOf(final FileResultTreeNode node) {
+        final int[] lines = new int[node.getChildCount()];
+        int index = 0;
+        for (final Enumeration children = node.children(); children.hasMoreElements();) {
+            final DefaultMutableTreeNode child = (DefaultMutableTreeNode) children.nextElement();
+            lines[index++] = ((ResultTreeNode) child.getUserObject()).getLine();
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,95 @@
+package org.infernus.idea.checkstyle.toolwindow;
+
+import com.puppycrawl.tools.checkstyle.api.SeverityLevel;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * Times building and filtering the result tree for large scans. The limits are generous,
+ * so these fail on a change in complexity rather than on a slow machine.
+ */
+public class ResultTreeModelTimingTest {
+    private static final int PROBLEMS_PER_FILE = 10;
+
+    private static final long SET_MODEL_LIMIT_MS = 2000;
+    private static final long FILTER_LIMIT_MS = 2000;
+
+    @Test
+    public void tenThousandProblemsShouldBeDisplayedWithinTheLimit() {
+        assertModelIsSetWithinTheLimit(10000);
+    }
+
+    @Test
+    public void oneHundredThousandProblemsShouldBeDisplayedWithinTheLimit() {
+        assertModelIsSetWithinTheLimit(100000);
+    }
+
+    @Test
+    public void tenThousandProblemsShouldBeFilteredWithinTheLimit() {
+        assertModelIsFilteredWithinTheLimit(10000);
+    }
+
+    @Test
+    public void oneHundredThousandProblemsShouldBeFilteredWithinTheLimit() {
+        assertModelIsFilteredWithinTheLimit(100000);
+    }
+
+    private static void assertModelIsSetWithinTheLimit(final int problemCount) {
+        final List<FileResults> results = resultsWith(problemCount);
+        final ResultTreeModel unit = new ResultTreeModel();
+
+        final long start = System.currentTimeMillis();
+        unit.setModel(results);
+        final long elapsed = System.currentTimeMillis() - start;
+
+        assertThat(unit.getProblemCount(), is(equalTo(problemCount)));
+        assertThat(elapsed, is(lessThan(SET_MODEL_LIMIT_MS)));
+    }
+
+    private static void assertModelIsFilteredWithinTheLimit(final int problemCount) {
+        final ResultTreeModel unit = new ResultTreeModel(resultsWith(problemCount));
+
+        final long start = System.currentTimeMillis();
+        unit.filter(SeverityLevel.ERROR);
+        unit.filter(SeverityLevel.WARNING, SeverityLevel.INFO);
+        unit.filter(SeverityLevel.ERROR, SeverityLevel.WARNING, SeverityLevel.INFO);
+        final long elapsed = System.currentTimeMillis() - start;
+
+        assertThat(visibleProblemCountOf(unit), is(equalTo(problemCount)));
+        assertThat(elapsed, is(lessThan(FILTER_LIMIT_MS)));
+    }
+
+    private static int visibleProblemCountOf(final ResultTreeModel model) {
+        int problemCount = 0;
+        for (int i = 0; i < model.getVisibleRoot().getChildCount(); ++i) {
+            problemCount += model.getVisibleRoot().getChildAt(i).getChildCount();
+        }
+        return problemCount;
+    }
+
+    private static List<FileResults> resultsWith(final int problemCount) {
+        final byte[] levels = {(byte) SeverityLevel.ERROR.ordinal(),
+                (byte) SeverityLevel.WARNING.ordinal(), (byte) SeverityLevel.INFO.ordinal()};
+
+        final List<FileResults> results = new ArrayList<FileResults>();
+        for (int fileIndex = 0; fileIndex < problemCount / PROBLEMS_PER_FILE; ++fileIndex) {
+            final int[] lines = new int[PROBLEMS_PER_FILE];
+            final int[] columns = new int[PROBLEMS_PER_FILE];
+            final byte[] severities = new byte[PROBLEMS_PER_FILE];
+            final String[] messages = new String[PROBLEMS_PER_FILE];
+            for (int i = 0; i < PROBLEMS_PER_FILE; ++i) {
+                lines[i] = i + 1;
+                columns[i] = i;
+                severities[i] = levels[(fileIndex + i) % levels.length];
+                messages[i] = "aMessage" + i;
+            }
+            results.add(new FileResults(null, "AClass" + fileIndex + ".java", lines, columns, severities, messages));
+        }
+        return results;
+    }
+}
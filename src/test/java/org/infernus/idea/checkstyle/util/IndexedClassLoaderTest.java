@@ -0,0 +1,202 @@
+package org.infernus.idea.checkstyle.util;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class IndexedClassLoaderTest {
+    private static final String SAMPLE_CLASS_PATH = Sample.class.getName().replace('.', '/') + ".class";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File jar;
+    private File indexDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        jar = folder.newFile("sample.jar");
+        final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+        try {
+            out.putNextEntry(new ZipEntry(SAMPLE_CLASS_PATH));
+            copySampleClass(out);
+            out.closeEntry();
+
+            out.putNextEntry(new ZipEntry("a/resource/package/resource.txt"));
+            out.write("aResource".getBytes("UTF-8"));
+            out.closeEntry();
+
+        } finally {
+            out.close();
+        }
+
+        indexDirectory = new File(folder.getRoot(), "index");
+    }
+
+    @Test
+    public void classInAnIndexedJarShouldBeLoaded() throws ClassNotFoundException {
+        final IndexedClassLoader unit = new IndexedClassLoader(Arrays.asList(jar), null, null);
+
+        final Class<?> sampleClass = unit.loadClass(Sample.class.getName());
+
+        assertThat(sampleClass.getName(), is(equalTo(Sample.class.getName())));
+        assertThat(sampleClass.getClassLoader(), is(sameInstance((ClassLoader) unit)));
+    }
+
+    @Test(expected = ClassNotFoundException.class)
+    public void classInAPackageOutsideOfTheClasspathShouldNotBeFound() throws ClassNotFoundException {
+        final IndexedClassLoader unit = new IndexedClassLoader(Arrays.asList(jar), null, null);
+
+        unit.loadClass("an.unknown.package.AClass");
+    }
+
+    @Test
+    public void resourceInAnIndexedJarShouldBeFound() throws IOException {
+        final IndexedClassLoader unit = new IndexedClassLoader(Arrays.asList(jar), null, null);
+
+        assertThat(unit.findResource("a/resource/package/resource.txt"), is(notNullValue()));
+        assertThat(unit.findResources("a/resource/package/resource.txt").hasMoreElements(), is(true));
+    }
+
+    @Test
+    public void resourceInAPackageOutsideOfTheClasspathShouldNotBeFound() throws IOException {
+        final IndexedClassLoader unit = new IndexedClassLoader(Arrays.asList(jar), null, null);
+
+        assertThat(unit.findResource("an/unknown/package/resource.txt"), is(nullValue()));
+        assertThat(unit.findResources("an/unknown/package/resource.txt").hasMoreElements(), is(false));
+    }
+
+    @Test
+    public void resourceInADirectoryShouldBeFound() throws IOException {
+        final File directory = folder.newFolder("classes");
+        final File resourceDirectory = new File(directory, "a/directory/package");
+        assertThat(resourceDirectory.mkdirs(), is(true));
+        writeFile(new File(resourceDirectory, "resource.txt"), "aResource");
+
+        final IndexedClassLoader unit = new IndexedClassLoader(Arrays.asList(directory), null, null);
+
+        assertThat(unit.findResource("a/directory/package/resource.txt"), is(notNullValue()));
+        assertThat(unit.findResource("a/directory/resource.txt"), is(nullValue()));
+    }
+
+    @Test
+    public void resourceAddedToADirectoryAfterCreationShouldBeFound() throws IOException {
+        final File directory = folder.newFolder("classes");
+        final IndexedClassLoader unit = new IndexedClassLoader(Arrays.asList(jar, directory), null, null);
+
+        final File resourceDirectory = new File(directory, "a/new/package");
+        assertThat(resourceDirectory.mkdirs(), is(true));
+        writeFile(new File(resourceDirectory, "resource.txt"), "aResource");
+
+        assertThat(unit.findResource("a/new/package/resource.txt"), is(notNullValue()));
+        assertThat(unit.findResource("a/resource/package/resource.txt"), is(notNullValue()));
+    }
+
+    @Test
+    public void indexOfAJarShouldBeStored() {
+        new IndexedClassLoader(Arrays.asList(jar), null, indexDirectory);
+
+        assertThat(indexDirectory.list(), is(arrayWithSize(1)));
+    }
+
+    @Test
+    public void storedIndexShouldBeUsedByLaterClassLoaders() throws ClassNotFoundException {
+        new IndexedClassLoader(Arrays.asList(jar), null, indexDirectory);
+        final long indexTime = indexDirectory.listFiles()[0].lastModified();
+
+        final IndexedClassLoader unit = new IndexedClassLoader(Arrays.asList(jar), null, indexDirectory);
+
+        assertThat(unit.loadClass(Sample.class.getName()).getClassLoader(), is(sameInstance((ClassLoader) unit)));
+        assertThat(indexDirectory.listFiles()[0].lastModified(), is(equalTo(indexTime)));
+    }
+
+    @Test
+    public void corruptStoredIndexShouldBeRebuilt() throws IOException, ClassNotFoundException {
+        new IndexedClassLoader(Arrays.asList(jar), null, indexDirectory);
+        writeFile(indexDirectory.listFiles()[0], "not an index");
+
+        final IndexedClassLoader unit = new IndexedClassLoader(Arrays.asList(jar), null, indexDirectory);
+
+        assertThat(unit.loadClass(Sample.class.getName()).getClassLoader(), is(sameInstance((ClassLoader) unit)));
+    }
+
+    @Test
+    public void missingClasspathElementShouldBeIgnored() throws ClassNotFoundException {
+        final IndexedClassLoader unit = new IndexedClassLoader(
+                Arrays.asList(new File(folder.getRoot(), "missing.jar"), jar), null, null);
+
+        assertThat(unit.loadClass(Sample.class.getName()).getClassLoader(), is(sameInstance((ClassLoader) unit)));
+        assertThat(unit.findResource("an/unknown/package/resource.txt"), is(nullValue()));
+    }
+
+    @Test
+    public void elementThatCannotBeIndexedShouldStillBeOnTheClasspath() throws IOException {
+        final File unreadableJar = folder.newFile("unreadable.jar");
+        writeFile(unreadableJar, "not a jar");
+
+        final IndexedClassLoader unit = new IndexedClassLoader(Arrays.asList(unreadableJar, jar), null, null);
+
+        assertThat(Arrays.asList(unit.getURLs()), hasItem(unreadableJar.toURI().toURL()));
+        assertThat(Arrays.asList(unit.getURLs()), hasItem(jar.toURI().toURL()));
+    }
+
+    @Test
+    public void lookupsShouldNotBeFilteredWhenAnElementCannotBeIndexed() throws Exception {
+        final File unreadableJar = folder.newFile("unreadable.jar");
+        writeFile(unreadableJar, "not a jar");
+
+        final IndexedClassLoader unit = new IndexedClassLoader(Arrays.asList(unreadableJar, jar), null, null);
+
+        assertThat(unit.loadClass(Sample.class.getName()).getClassLoader(), is(sameInstance((ClassLoader) unit)));
+        assertThat(unit.findResource("a/resource/package/resource.txt"), is(notNullValue()));
+    }
+
+    @Test
+    public void emptyClasspathShouldFindNothing() {
+        final IndexedClassLoader unit = new IndexedClassLoader(Collections.<File>emptyList(), null, null);
+
+        assertThat(unit.findResource("a/resource/package/resource.txt"), is(nullValue()));
+    }
+
+    private static void copySampleClass(final OutputStream out) throws IOException {
+        final InputStream in = IndexedClassLoaderTest.class.getClassLoader().getResourceAsStream(SAMPLE_CLASS_PATH);
+        try {
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeFile(final File file, final String content) throws IOException {
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * A class for the class loader to load from the sample jar.
+     */
+    public static class Sample {
+    }
+}